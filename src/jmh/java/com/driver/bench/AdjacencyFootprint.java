@@ -0,0 +1,64 @@
+package com.driver.bench;
+
+import com.driver.IntAdjacency;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class AdjacencyFootprint {
+    //Retained bytes per edge of the old relationship layout (ConcurrentHashMap of synchronized ArrayLists keyed
+    //by entity) against IntAdjacency, measured with JOL for the degree shapes the repository holds: user ->
+    //playlists and song -> likes are short rows, album -> songs medium, playlist -> songs long.
+    //The entities themselves are subtracted, they exist whichever way the edges are stored.
+    //
+    //Arguments: edges per shape, e.g. 2000000 (bytes per edge barely move with size, so the figure for a
+    //100M-edge graph is edges x bytes per edge; measuring that many directly needs a far larger heap)
+
+    private static final int[] DEGREES = {2, 4, 12, 200};
+    private static final String[] SHAPES = {"userPlaylists", "songLikes", "albumSongs", "playlistSongs"};
+
+    public static void main(String[] args) {
+        int edges = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        System.out.println(VM.current().details());
+        System.out.printf("%-14s %6s %10s %14s %14s %8s %16s %16s%n", "shape", "degree", "edges", "legacy B/edge", "compact B/edge", "ratio", "legacy @100M", "compact @100M");
+        for(int i = 0; i < DEGREES.length; i++){
+            measure(SHAPES[i], DEGREES[i], edges);
+        }
+    }
+
+    private static void measure(String shape, int degree, int edges) {
+        int sources = Math.max(1, edges / degree);
+        int targets = Math.max(sources, 100000);
+        Object[] sourceEntities = entities(sources);
+        Object[] targetEntities = entities(targets);
+
+        //the same random edges go into both layouts, sources drawn uniformly so row lengths spread around the mean
+        Random random = new Random(42);
+        ConcurrentHashMap<Object, List<Object>> legacy = new ConcurrentHashMap<>();
+        IntAdjacency compact = new IntAdjacency();
+        for(int i = 0; i < edges; i++){
+            int source = random.nextInt(sources);
+            int target = random.nextInt(targets);
+            legacy.computeIfAbsent(sourceEntities[source], s -> Collections.synchronizedList(new ArrayList<>())).add(targetEntities[target]);
+            compact.add(source, target);
+        }
+
+        GraphLayout entityLayout = GraphLayout.parseInstance(sourceEntities, targetEntities);
+        long legacyBytes = GraphLayout.parseInstance(legacy).subtract(entityLayout).totalSize();
+        long compactBytes = GraphLayout.parseInstance(compact).totalSize();
+        double legacyPerEdge = (double) legacyBytes / edges;
+        double compactPerEdge = (double) compactBytes / edges;
+        System.out.printf("%-14s %6d %10d %14.2f %14.2f %7.2fx %13.2f GB %13.2f GB%n", shape, degree, edges,
+                legacyPerEdge, compactPerEdge, legacyPerEdge / compactPerEdge, legacyPerEdge * 1e8 / (1 << 30), compactPerEdge * 1e8 / (1 << 30));
+    }
+
+    private static Object[] entities(int count) {
+        Object[] entities = new Object[count];
+        for(int i = 0; i < count; i++){
+            entities[i] = new Object();
+        }
+        return entities;
+    }
+}
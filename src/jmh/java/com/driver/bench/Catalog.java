@@ -0,0 +1,55 @@
+package com.driver.bench;
+
+import com.driver.SpotifyRepository;
+
+public class Catalog {
+    //Deterministic synthetic catalogs: 10 songs per album, 5 albums per artist, song lengths 1..600
+
+    public static final int SONGS_PER_ALBUM = 10;
+    public static final int ALBUMS_PER_ARTIST = 5;
+    public static final int LENGTHS = 600;
+
+    private Catalog(){
+
+    }
+
+    public static void fill(SpotifyRepository repository, int songs, int users, int playlists) throws Exception {
+        for(int i = 0; i < users; i++){
+            repository.createUser("user " + i, mobile(i));
+        }
+        int albums = (songs + SONGS_PER_ALBUM - 1) / SONGS_PER_ALBUM;
+        for(int i = 0; i < albums; i++){
+            repository.createAlbum(album(i), artist(i / ALBUMS_PER_ARTIST));
+        }
+        for(int i = 0; i < songs; i++){
+            repository.createSong(song(i), album(i / SONGS_PER_ALBUM), length(i));
+        }
+        for(int i = 0; i < playlists; i++){
+            repository.createPlaylistOnLength(mobile(i % users), playlist(i), length(i));
+        }
+    }
+
+    public static String mobile(int i){
+        return "9" + i;
+    }
+
+    public static String artist(int i){
+        return "artist " + i;
+    }
+
+    public static String album(int i){
+        return "album " + i;
+    }
+
+    public static String song(int i){
+        return "song " + i;
+    }
+
+    public static String playlist(int i){
+        return "playlist " + i;
+    }
+
+    public static int length(int i){
+        return 1 + (int) ((i * 2654435761L) % LENGTHS);
+    }
+}
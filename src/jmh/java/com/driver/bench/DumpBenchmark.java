@@ -0,0 +1,54 @@
+package com.driver.bench;
+
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class DumpBenchmark {
+    //Writing a SpotifyDump of a warm repository and loading it into an empty one: songs, a user per 10 songs,
+    //1000 playlists by length and a like per song
+
+    @Param({"100000", "1000000", "5000000"})
+    public int catalogSize;
+
+    private SpotifyRepository repository;
+    private byte[] dump;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SpotifyRepository();
+        int users = catalogSize / 10;
+        Catalog.fill(repository, catalogSize, users, 1000);
+        SplittableRandom random = new SplittableRandom(42);
+        for(int i = 0; i < catalogSize; i++){
+            repository.likeSong(Catalog.mobile(random.nextInt(users)), Catalog.song(random.nextInt(catalogSize)));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        repository.export(out);
+        dump = out.toByteArray();
+        System.out.printf("%n%d songs: %d bytes dumped%n", catalogSize, dump.length);
+    }
+
+    @Benchmark
+    public void export() throws Exception {
+        repository.export(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        SpotifyRepository copy = new SpotifyRepository();
+        copy.load(new ByteArrayInputStream(dump));
+        return copy;
+    }
+}
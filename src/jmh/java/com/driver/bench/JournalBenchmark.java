@@ -0,0 +1,100 @@
+package com.driver.bench;
+
+import com.driver.SpotifyJournal;
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+@Fork(1)
+public class JournalBenchmark {
+    //Write throughput of journaled likes per fsync policy, and recovery time from snapshot plus journal tail
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+        @Param({"ALWAYS", "INTERVAL", "NEVER"})
+        public SpotifyJournal.FsyncPolicy policy;
+
+        public Path dir;
+        public SpotifyRepository repository;
+        public final AtomicInteger users = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            dir = Files.createTempDirectory("journal-bench");
+            repository = SpotifyRepository.open(dir, policy, 10, 0);
+            Catalog.fill(repository, 10_000, 1, 0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            repository.close();
+            delete(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Threads(8)
+    public Object journaledWrites(Writes writes) throws Exception {
+        //a new user liking a song: two journal records per call
+        int n = writes.users.incrementAndGet();
+        writes.repository.createUser("bench", "bench " + n);
+        return writes.repository.likeSong("bench " + n, Catalog.song(n % 10_000));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"100000", "1000000"})
+        public int records;
+
+        public Path dir;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            //half of the records go into the snapshot, the other half stay in the journal tail
+            dir = Files.createTempDirectory("recovery-bench");
+            SpotifyRepository repository = SpotifyRepository.open(dir, SpotifyJournal.FsyncPolicy.NEVER, 100, 0);
+            int songs = records / 10;
+            Catalog.fill(repository, songs, songs, 0);
+            repository.snapshot();
+            SplittableRandom random = new SplittableRandom(7);
+            for(int i = songs * 2; i < records; i++){
+                repository.likeSong(Catalog.mobile(random.nextInt(songs)), Catalog.song(random.nextInt(songs)));
+            }
+            repository.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public Object recover(Recovery recovery) throws Exception {
+        //opening leaves a new empty segment behind, which the next recovery simply replays as empty
+        SpotifyRepository repository = SpotifyRepository.open(recovery.dir, SpotifyJournal.FsyncPolicy.NEVER, 100, 0);
+        repository.close();
+        return repository;
+    }
+
+    static void delete(Path dir) throws IOException {
+        try(Stream<Path> files = Files.walk(dir)){
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.driver.bench;
+
+import com.driver.LikePipeline;
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class LikePipelineBenchmark {
+    //likeSong on the request threads against the queued pipeline. With BLOCK the callers are held to the
+    //consumers' pace once the queue fills, so the async score is the sustained rate, not the enqueue rate.
+
+    @Param({"100000"})
+    public int catalogSize;
+
+    @Param({"1.1"})
+    public double zipfExponent;
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    @Param({"1"})
+    public int consumers;
+
+    private SpotifyRepository repository;
+    private LikePipeline pipeline;
+    private ZipfSampler songs;
+    private ZipfSampler listeners;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SpotifyRepository();
+        int users = Math.max(1000, catalogSize / 10);
+        Catalog.fill(repository, catalogSize, users, 0);
+        songs = new ZipfSampler(catalogSize, zipfExponent);
+        listeners = new ZipfSampler(users, zipfExponent);
+        if(mode.equals("async")){
+            pipeline = new LikePipeline(repository, 65536, consumers, 4096, LikePipeline.Backpressure.BLOCK);
+            repository.setLikePipeline(pipeline);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws InterruptedException {
+        if(pipeline != null){
+            pipeline.awaitIdle();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        if(pipeline != null){
+            pipeline.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    public Object likeSong(ThreadState thread) throws Exception {
+        return repository.likeSong(Catalog.mobile(listeners.next(thread.random)), Catalog.song(songs.next(thread.random)));
+    }
+}
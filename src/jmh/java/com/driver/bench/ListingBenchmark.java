@@ -0,0 +1,62 @@
+package com.driver.bench;
+
+import com.driver.IntAdjacency;
+import com.driver.JsonPage;
+import com.driver.Song;
+import com.driver.SpotifyRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListingBenchmark {
+    //Writing one page of a 500k-song playlist at increasing depth; the cost should not depend on the cursor
+
+    @Param({"0", "10000", "490000"})
+    public int cursor;
+
+    @Param({"100"})
+    public int limit;
+
+    private IntAdjacency.Row<Song> songs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        Catalog.fill(repository, 500000, 1, 0);
+        //every song has length 1 + (i * 2654435761 % 600), a playlist over all lengths holds the whole catalog
+        repository.createPlaylistOnLengthRange(Catalog.mobile(0), "everything", 1, Catalog.LENGTHS);
+        songs = repository.playlistSongs("everything");
+    }
+
+    @Benchmark
+    public OutputStream page() throws Exception {
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b){
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len){
+            }
+        };
+        JsonPage.of(songs, Integer.toString(cursor), limit, ListingBenchmark::writeSong).writeTo(out);
+        return out;
+    }
+
+    private static void writeSong(JsonGenerator json, Song song) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("title", song.getTitle());
+        json.writeNumberField("length", song.getLength());
+        json.writeNumberField("likes", song.getLikes());
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,131 @@
+package com.driver.bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadTest {
+    //Closed-loop HTTP load against a running server: each client connection sends its next request as soon as
+    //the previous one answers, 90% like-song and 10% popular-songs. Run it against the default Tomcat pool and
+    //against -Dspotify.threads.virtual=true to compare throughput and tail latency per concurrency level.
+    //
+    //Arguments: base url, concurrency levels (comma separated), seconds per level, catalog songs
+    //e.g. http://localhost:8080 64,256,1024 30 10000
+
+    private static final int USERS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        String levels = args.length > 1 ? args[1] : "64,256,1024";
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int songs = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        seed(client, base, songs);
+
+        System.out.printf("%-12s %12s %10s %10s %10s %10s %8s%n", "concurrency", "requests/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for(String level : levels.split(",")){
+            run(client, base, Integer.parseInt(level.trim()), seconds, songs);
+        }
+    }
+
+    private static void seed(HttpClient client, String base, int songs) throws Exception {
+        //loaded through the bulk endpoints, one NDJSON body per entity type
+        StringBuilder users = new StringBuilder();
+        for(int i = 0; i < USERS; i++){
+            users.append("{\"name\":\"user ").append(i).append("\",\"mobile\":\"").append(Catalog.mobile(i)).append("\"}\n");
+        }
+        post(client, base + "/spotify/add-users", users);
+        StringBuilder albums = new StringBuilder();
+        int albumCount = (songs + Catalog.SONGS_PER_ALBUM - 1) / Catalog.SONGS_PER_ALBUM;
+        for(int i = 0; i < albumCount; i++){
+            albums.append("{\"title\":\"").append(Catalog.album(i)).append("\",\"artistName\":\"").append(Catalog.artist(i / Catalog.ALBUMS_PER_ARTIST)).append("\"}\n");
+        }
+        post(client, base + "/spotify/add-albums", albums);
+        StringBuilder rows = new StringBuilder();
+        for(int i = 0; i < songs; i++){
+            rows.append("{\"title\":\"").append(Catalog.song(i)).append("\",\"albumName\":\"").append(Catalog.album(i / Catalog.SONGS_PER_ALBUM)).append("\",\"length\":").append(Catalog.length(i)).append("}\n");
+        }
+        post(client, base + "/spotify/add-songs", rows);
+    }
+
+    private static void post(HttpClient client, String url, CharSequence body) throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if(response.statusCode() != 200){
+            throw new IllegalStateException(url + " returned " + response.statusCode() + ": " + response.body());
+        }
+    }
+
+    private static void run(HttpClient client, String base, int concurrency, int seconds, int songs) throws InterruptedException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicLong errors = new AtomicLong();
+        long[][] latencies = new long[concurrency][];
+        int[] counts = new int[concurrency];
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for(int c = 0; c < concurrency; c++){
+            int worker = c;
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(worker);
+                long[] recorded = new long[1024];
+                int count = 0;
+                while(System.nanoTime() < end){
+                    HttpRequest request = random.nextInt(10) == 0
+                            ? HttpRequest.newBuilder(URI.create(base + "/spotify/popular-songs?k=10")).GET().build()
+                            : HttpRequest.newBuilder(URI.create(base + "/spotify/like-song?mobile=" + Catalog.mobile(random.nextInt(USERS))
+                                    + "&songTitle=song%20" + random.nextInt(songs))).PUT(HttpRequest.BodyPublishers.noBody()).build();
+                    long start = System.nanoTime();
+                    try{
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if(response.statusCode() != 200){
+                            errors.incrementAndGet();
+                        }
+                    }catch(Exception e){
+                        errors.incrementAndGet();
+                    }
+                    if(count == recorded.length){
+                        recorded = Arrays.copyOf(recorded, count * 2);
+                    }
+                    recorded[count++] = System.nanoTime() - start;
+                }
+                latencies[worker] = recorded;
+                counts[worker] = count;
+                done.countDown();
+            }, "load-" + c);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        int total = 0;
+        for(int count : counts){
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for(int c = 0; c < concurrency; c++){
+            System.arraycopy(latencies[c], 0, all, offset, counts[c]);
+            offset += counts[c];
+        }
+        Arrays.sort(all);
+        System.out.printf("%-12d %12.0f %10.2f %10.2f %10.2f %10.2f %8d%n", concurrency, (double) total / seconds,
+                percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999), total == 0 ? 0 : all[total - 1] / 1e6, errors.get());
+    }
+
+    private static double percentile(long[] sorted, double p){
+        if(sorted.length == 0){
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,71 @@
+package com.driver.bench;
+
+import com.driver.SpotifyMetrics;
+import com.driver.SpotifyMetrics.Operation;
+import com.driver.SpotifyRepository;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    //Cost of the SpotifyService timing wrapper: the same repository calls with and without it,
+    //recorded into a Prometheus registry the way the running application does
+
+    @Param({"100000"})
+    public int catalogSize;
+
+    private SpotifyRepository repository;
+    private PrometheusMeterRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(registry);
+        repository = new SpotifyRepository();
+        Catalog.fill(repository, catalogSize, 1000, 0);
+        SpotifyMetrics.registerGauges(repository);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        Metrics.removeRegistry(registry);
+        registry.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    public String mostPopularSongRaw(){
+        return repository.mostPopularSong();
+    }
+
+    @Benchmark
+    public String mostPopularSongTimed(){
+        return SpotifyMetrics.time(Operation.MOST_POPULAR_SONG, () -> repository.mostPopularSong());
+    }
+
+    @Benchmark
+    public Object likeSongRaw(ThreadState thread) throws Exception {
+        return repository.likeSong(Catalog.mobile(thread.random.nextInt(1000)), Catalog.song(thread.random.nextInt(catalogSize)));
+    }
+
+    @Benchmark
+    public Object likeSongTimed(ThreadState thread) throws Exception {
+        String mobile = Catalog.mobile(thread.random.nextInt(1000));
+        String title = Catalog.song(thread.random.nextInt(catalogSize));
+        return SpotifyMetrics.time(Operation.LIKE_SONG, () -> repository.likeSong(mobile, title));
+    }
+}
@@ -0,0 +1,58 @@
+package com.driver.bench;
+
+import com.driver.Song;
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlaylistOnNameBenchmark {
+    //Resolving a 500-title playlist import: the title index against the catalog scan createPlaylistOnName used before
+
+    @Param({"10000", "100000", "1000000"})
+    public int catalogSize;
+
+    @Param({"500"})
+    public int requestedTitles;
+
+    private SpotifyRepository repository;
+    private List<String> titles;
+    private int created;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SpotifyRepository();
+        Catalog.fill(repository, catalogSize, 1, 0);
+        SplittableRandom random = new SplittableRandom(42);
+        titles = new ArrayList<>();
+        for(int i = 0; i < requestedTitles; i++){
+            titles.add(Catalog.song(random.nextInt(catalogSize)));
+        }
+    }
+
+    @Benchmark
+    public Object indexed() throws Exception {
+        return repository.createPlaylistOnName(Catalog.mobile(0), "indexed " + created++, titles);
+    }
+
+    @Benchmark
+    public Object linearScan(){
+        //the pre-index implementation: every catalog song checked against the requested title list
+        List<Song> songList = new ArrayList<>();
+        for(Song song : repository.songs){
+            if(titles.contains(song.getTitle())){
+                songList.add(song);
+            }
+        }
+        return songList;
+    }
+}
@@ -0,0 +1,56 @@
+package com.driver.bench;
+
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ReadViewBenchmark {
+    //Popularity reads against a steady like stream: one liking thread per group, the rest read.
+    //Run with -tg 1,1 / 1,3 / 1,7 ... to see read throughput grow with the reader count.
+
+    @Param({"100000"})
+    public int catalogSize;
+
+    @Param({"1.1"})
+    public double zipfExponent;
+
+    private SpotifyRepository repository;
+    private ZipfSampler songs;
+    private int users;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SpotifyRepository();
+        users = Math.max(1000, catalogSize / 10);
+        Catalog.fill(repository, catalogSize, users, 0);
+        songs = new ZipfSampler(catalogSize, zipfExponent);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Group("likesAndReads")
+    @GroupThreads(1)
+    public Object like(ThreadState thread) throws Exception {
+        return repository.likeSong(Catalog.mobile(thread.random.nextInt(users)), Catalog.song(songs.next(thread.random)));
+    }
+
+    @Benchmark
+    @Group("likesAndReads")
+    @GroupThreads(3)
+    public List<String> readTopSongs(){
+        return repository.mostPopularSongs(10);
+    }
+}
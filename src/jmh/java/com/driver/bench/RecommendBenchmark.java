@@ -0,0 +1,78 @@
+package com.driver.bench;
+
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecommendBenchmark {
+    //What co-occurrence counting adds to a like (history 0 turns it off), and the cost of the recommendation
+    //reads on a catalog with likesPerUser Zipf-distributed likes per user, neighbors refreshed once.
+    //similarSongs and recommend draw from hot songs and users, so most calls are cache hits.
+
+    @Param({"0", "20"})
+    public int history;
+
+    @Param({"100000"})
+    public int catalogSize;
+
+    @Param({"30"})
+    public int likesPerUser;
+
+    @Param({"1.1"})
+    public double zipfExponent;
+
+    private SpotifyRepository repository;
+    private ZipfSampler songs;
+    private ZipfSampler listeners;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("spotify.recommend.history", Integer.toString(history));
+        repository = new SpotifyRepository();
+        int users = Math.max(1000, catalogSize / 10);
+        Catalog.fill(repository, catalogSize, users, 0);
+        songs = new ZipfSampler(catalogSize, zipfExponent);
+        listeners = new ZipfSampler(users, zipfExponent);
+        SplittableRandom random = new SplittableRandom(42);
+        for(int user = 0; user < users; user++){
+            for(int i = 0; i < likesPerUser; i++){
+                repository.likeSong(Catalog.mobile(user), Catalog.song(songs.next(random)));
+            }
+        }
+        repository.refreshRecommendations();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.clearProperty("spotify.recommend.history");
+        repository.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    public Object likeSong(ThreadState thread) throws Exception {
+        return repository.likeSong(Catalog.mobile(listeners.next(thread.random)), Catalog.song(songs.next(thread.random)));
+    }
+
+    @Benchmark
+    public Object similarSongs(ThreadState thread) throws Exception {
+        return repository.similarSongs(Catalog.song(songs.next(thread.random)), 10);
+    }
+
+    @Benchmark
+    public Object recommend(ThreadState thread) throws Exception {
+        return repository.recommend(Catalog.mobile(listeners.next(thread.random)), 10);
+    }
+}
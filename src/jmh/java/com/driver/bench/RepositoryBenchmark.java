@@ -0,0 +1,106 @@
+package com.driver.bench;
+
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class RepositoryBenchmark {
+    //Every SpotifyRepository operation against a generated catalog. Songs and users are drawn from a
+    //Zipf distribution (exponent 0 = uniform). Run in one thread by SingleThreaded and in all cores by MultiThreaded.
+    //Larger catalogs: -p catalogSize=10000000 (give the fork enough heap with -jvmArgs -Xmx16g).
+
+    @State(Scope.Benchmark)
+    public static class CatalogState {
+        @Param({"10000", "100000", "1000000"})
+        public int catalogSize;
+
+        @Param({"0.0", "1.1"})
+        public double zipfExponent;
+
+        public SpotifyRepository repository;
+        public int users;
+        public ZipfSampler songs;
+        public ZipfSampler listeners;
+        public final AtomicInteger created = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            repository = new SpotifyRepository();
+            users = Math.max(1000, catalogSize / 10);
+            Catalog.fill(repository, catalogSize, users, 1000);
+            songs = new ZipfSampler(catalogSize, zipfExponent);
+            listeners = new ZipfSampler(users, zipfExponent);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public SplittableRandom random = new SplittableRandom();
+        public List<String> titles;
+
+        @Setup(Level.Trial)
+        public void setUp(CatalogState catalog){
+            random = new SplittableRandom(Thread.currentThread().getId());
+            titles = new ArrayList<>();
+            for(int i = 0; i < 50; i++){
+                titles.add(Catalog.song(catalog.songs.next(random)));
+            }
+        }
+    }
+
+    @Benchmark
+    public Object createSong(CatalogState catalog) throws Exception {
+        int n = catalog.created.incrementAndGet();
+        return catalog.repository.createSong("new song " + n, Catalog.album(n % (catalog.catalogSize / Catalog.SONGS_PER_ALBUM)), Catalog.length(n));
+    }
+
+    @Benchmark
+    public Object createPlaylistOnLength(CatalogState catalog, ThreadState thread) throws Exception {
+        int n = catalog.created.incrementAndGet();
+        return catalog.repository.createPlaylistOnLength(Catalog.mobile(catalog.listeners.next(thread.random)), "length playlist " + n, Catalog.length(n));
+    }
+
+    @Benchmark
+    public Object createPlaylistOnName(CatalogState catalog, ThreadState thread) throws Exception {
+        int n = catalog.created.incrementAndGet();
+        return catalog.repository.createPlaylistOnName(Catalog.mobile(catalog.listeners.next(thread.random)), "name playlist " + n, thread.titles);
+    }
+
+    @Benchmark
+    public Object findPlaylist(CatalogState catalog, ThreadState thread) throws Exception {
+        return catalog.repository.findPlaylist(Catalog.mobile(catalog.listeners.next(thread.random)), Catalog.playlist(thread.random.nextInt(1000)));
+    }
+
+    @Benchmark
+    public Object likeSong(CatalogState catalog, ThreadState thread) throws Exception {
+        return catalog.repository.likeSong(Catalog.mobile(catalog.listeners.next(thread.random)), Catalog.song(catalog.songs.next(thread.random)));
+    }
+
+    @Benchmark
+    public String mostPopularArtist(CatalogState catalog){
+        return catalog.repository.mostPopularArtist();
+    }
+
+    @Benchmark
+    public String mostPopularSong(CatalogState catalog){
+        return catalog.repository.mostPopularSong();
+    }
+
+    @Threads(1)
+    public static class SingleThreaded extends RepositoryBenchmark {
+    }
+
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends RepositoryBenchmark {
+    }
+}
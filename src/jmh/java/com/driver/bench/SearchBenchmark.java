@@ -0,0 +1,84 @@
+package com.driver.bench;
+
+import com.driver.SearchIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    //Title search over a synthetic catalog of made-up two or three word titles of consonant-vowel syllables.
+    //Target: prefix queries under 1ms at 10M titles (-p titles=10000000, needs a larger -Xmx than the default here).
+
+    private static final String CONSONANTS = "bcdfghjklmnprstvwz";
+    private static final String VOWELS = "aeiou";
+
+    @Param({"100000", "1000000"})
+    public int titles;
+
+    @Param({"10"})
+    public int limit;
+
+    private SearchIndex<Integer> index;
+    private String[] prefixes;
+    private String[] typos;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        index = new SearchIndex<>();
+        SplittableRandom random = new SplittableRandom(42);
+        String[] samples = new String[1024];
+        for(int i = 0; i < titles; i++){
+            String title = title(random);
+            index.add(title, i);
+            if(i < samples.length){
+                samples[i] = title;
+            }
+        }
+        prefixes = new String[samples.length];
+        typos = new String[samples.length];
+        for(int i = 0; i < samples.length; i++){
+            prefixes[i] = samples[i].substring(0, Math.min(samples[i].length(), 2 + random.nextInt(4)));
+            //one substituted letter
+            int at = random.nextInt(samples[i].length());
+            typos[i] = samples[i].substring(0, at) + (char) ('a' + random.nextInt(26)) + samples[i].substring(at + 1);
+        }
+    }
+
+    private static String title(SplittableRandom random){
+        StringBuilder title = new StringBuilder();
+        int words = 2 + random.nextInt(2);
+        for(int w = 0; w < words; w++){
+            if(w > 0){
+                title.append(' ');
+            }
+            int syllables = 1 + random.nextInt(3);
+            for(int s = 0; s < syllables; s++){
+                title.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length()))).append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+            }
+        }
+        return title.toString();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    public List<Integer> prefix(ThreadState thread){
+        return index.prefix(prefixes[thread.random.nextInt(prefixes.length)], limit);
+    }
+
+    @Benchmark
+    public List<Integer> fuzzy(ThreadState thread){
+        return index.fuzzy(typos[thread.random.nextInt(typos.length)], limit);
+    }
+}
@@ -0,0 +1,72 @@
+package com.driver.bench;
+
+import com.driver.LikePipeline;
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ShardBenchmark {
+    //User-scoped writes at 1, 2, 4 and 8 user shards: sign-ups contend on a shard's id lock, queued likes on a
+    //shard's like queue, so both should scale with the shard count until the cores run out.
+    //Run with the thread count at or above the core count, e.g. -t 16.
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"100000"})
+    public int catalogSize;
+
+    @Param({"1.1"})
+    public double zipfExponent;
+
+    private SpotifyRepository repository;
+    private ZipfSampler songs;
+    private ZipfSampler listeners;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SpotifyRepository(shards);
+        int users = Math.max(1000, catalogSize / 10);
+        Catalog.fill(repository, catalogSize, users, 0);
+        songs = new ZipfSampler(catalogSize, zipfExponent);
+        listeners = new ZipfSampler(users, zipfExponent);
+        //what spotify.likes.async=true sets up: a pipeline with one consumer per shard
+        repository.setLikePipelines(() -> new LikePipeline(repository, 65536, 1, 4096, LikePipeline.Backpressure.BLOCK));
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws InterruptedException {
+        repository.awaitLikes();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        repository.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+        public final String prefix = "new-" + Thread.currentThread().getId() + "-";
+        public long next;
+    }
+
+    @Benchmark
+    public Object createUser(ThreadState thread){
+        return repository.createUser("new user", thread.prefix + thread.next++);
+    }
+
+    @Benchmark
+    public Object likeSong(ThreadState thread) throws Exception {
+        return repository.likeSong(Catalog.mobile(listeners.next(thread.random)), Catalog.song(songs.next(thread.random)));
+    }
+}
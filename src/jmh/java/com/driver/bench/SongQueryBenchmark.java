@@ -0,0 +1,72 @@
+package com.driver.bench;
+
+import com.driver.SongQuery;
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SongQueryBenchmark {
+    //One query per SongQueryPlanner plan: an indexed artist, a narrow length range, the like leaderboard,
+    //and a fork-join scan for a predicate no index covers
+
+    @Param({"100000", "1000000", "10000000"})
+    public int catalogSize;
+
+    @Param({"10000"})
+    public int likes;
+
+    private SpotifyRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SpotifyRepository();
+        Catalog.fill(repository, catalogSize, 16, 0);
+        SplittableRandom random = new SplittableRandom(42);
+        for(int i = 0; i < likes; i++){
+            repository.likeSong(Catalog.mobile(random.nextInt(16)), Catalog.song(random.nextInt(catalogSize)));
+        }
+    }
+
+    @Benchmark
+    public Object artistByLikes() throws Exception {
+        SongQuery query = new SongQuery();
+        query.setArtist(Catalog.artist(7));
+        query.setOrderBy("likes");
+        query.setLimit(10);
+        return repository.songQueries.run(query);
+    }
+
+    @Benchmark
+    public Object lengthRange() throws Exception {
+        SongQuery query = new SongQuery();
+        query.setMinLength(300);
+        query.setMaxLength(301);
+        query.setTitlePrefix("song 1");
+        return repository.songQueries.run(query);
+    }
+
+    @Benchmark
+    public Object topLiked() throws Exception {
+        SongQuery query = new SongQuery();
+        query.setMinLength(120);
+        query.setOrderBy("likes");
+        query.setLimit(50);
+        return repository.songQueries.run(query);
+    }
+
+    @Benchmark
+    public Object parallelScan() throws Exception {
+        SongQuery query = new SongQuery();
+        query.setMinLikes(1);
+        query.setLimit(50);
+        return repository.songQueries.run(query);
+    }
+}
@@ -0,0 +1,68 @@
+package com.driver.bench;
+
+import java.util.SplittableRandom;
+
+public class ZipfSampler {
+    //Draws ranks 0..n-1 where rank k has weight 1/(k+1)^exponent, by rejection-inversion
+    //(Hormann and Derflinger), so no table of n probabilities is needed. An exponent of 0 is uniform.
+
+    private final int n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    public ZipfSampler(int n, double exponent){
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    public int next(SplittableRandom random){
+        if(exponent == 0){
+            return random.nextInt(n);
+        }
+        while(true){
+            double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if(k < 1){
+                k = 1;
+            }else if(k > n){
+                k = n;
+            }
+            if(k - x <= s || u >= hIntegral(k + 0.5) - h(k)){
+                return k - 1;
+            }
+        }
+    }
+
+    private double h(double x){
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegral(double x){
+        double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double hIntegralInverse(double x){
+        double t = x * (1 - exponent);
+        if(t < -1){
+            t = -1;
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    private static double helper1(double x){
+        //log(1+x)/x, accurate near 0
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+    private static double helper2(double x){
+        //(exp(x)-1)/x, accurate near 0
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+    }
+}
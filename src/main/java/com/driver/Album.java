@@ -6,6 +6,7 @@ import java.util.List;
 public class Album {
     private String title;
     private Date releaseDate;
+    private int id;
 
     public Album(){
 
@@ -31,4 +32,12 @@ public class Album {
     public void setReleaseDate(Date releaseDate) {
         this.releaseDate = releaseDate;
     }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
 }
@@ -0,0 +1,80 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchResult {
+    //Outcome of a bulk upload: row counts, the errors of rejected rows (the first MAX_ERRORS of them) and the ingest rate
+    public static final int MAX_ERRORS = 1000;
+
+    private long rows;
+    private long succeeded;
+    private long failed;
+    private long millis;
+    private double rowsPerSecond;
+    private List<RowError> errors;
+
+    public BatchResult(){
+        this.errors = new ArrayList<>();
+    }
+
+    public void addSuccess(){
+        rows++;
+        succeeded++;
+    }
+
+    public void addError(int line, String error){
+        rows++;
+        failed++;
+        if(errors.size() < MAX_ERRORS){
+            errors.add(new RowError(line, error));
+        }
+    }
+
+    public void finish(long nanos){
+        this.millis = nanos / 1_000_000;
+        this.rowsPerSecond = nanos == 0 ? 0 : rows * 1_000_000_000.0 / nanos;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getSucceeded() {
+        return succeeded;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    public List<RowError> getErrors() {
+        return errors;
+    }
+
+    public static class RowError {
+        private int line;
+        private String error;
+
+        public RowError(int line, String error){
+            this.line = line;
+            this.error = error;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
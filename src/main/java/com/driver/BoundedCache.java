@@ -0,0 +1,89 @@
+package com.driver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+public class BoundedCache<K, V> {
+    //Least-recently-used cache holding at most capacity entries. Keys are spread over SEGMENTS access-ordered
+    //maps with a lock each, so readers of different keys rarely wait on each other; each segment evicts its
+    //own eldest entry once it holds its share of the capacity.
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int capacity){
+        if(capacity<1){
+            throw new IllegalArgumentException("Cache capacity must be at least 1");
+        }
+        this.segments = new Segment[SEGMENTS];
+        int share=Math.max(1,(capacity+SEGMENTS-1) / SEGMENTS);
+        for(int i=0;i<SEGMENTS;i++){
+            segments[i]=new Segment<>(share);
+        }
+    }
+
+    public V get(K key){
+        Segment<K, V> segment=segment(key);
+        synchronized (segment){
+            return segment.get(key);
+        }
+    }
+
+    public void put(K key, V value){
+        Segment<K, V> segment=segment(key);
+        synchronized (segment){
+            segment.put(key,value);
+        }
+    }
+
+    public V computeIfAbsent(K key, Function<K, V> loader){
+        //the value is computed outside the lock, two callers missing the same key may both compute it
+        V value=get(key);
+        if(value==null){
+            value=loader.apply(key);
+            if(value!=null){
+                put(key,value);
+            }
+        }
+        return value;
+    }
+
+    public void clear(){
+        for(Segment<K, V> segment:segments){
+            synchronized (segment){
+                segment.clear();
+            }
+        }
+    }
+
+    public int size(){
+        int size=0;
+        for(Segment<K, V> segment:segments){
+            synchronized (segment){
+                size+=segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segment(K key){
+        int hash=key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private final int capacity;
+
+        private Segment(int capacity){
+            super(16,0.75f,true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest){
+            return size()>capacity;
+        }
+    }
+}
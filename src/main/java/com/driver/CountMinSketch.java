@@ -0,0 +1,75 @@
+package com.driver;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class CountMinSketch {
+    //Approximate counts of long keys in depth x width counters: every key adds to one counter per row and its
+    //estimate is the smallest of them, which is never below the true count and overshoots by collisions only.
+    //Memory is fixed whatever the number of distinct keys; counters are atomic so adds need no lock.
+    //The rows are blocked: a key's depth counters all sit in one 64-byte block of 16 picked by its hash, so an
+    //add misses the cache once instead of depth times, for slightly more collisions than independent rows.
+    private static final int BLOCK_SHIFT = 4;
+    private static final int MAX_DEPTH = 8;
+
+    private final AtomicIntegerArray counters;
+    private final int depth;
+    private final int blockMask;
+
+    public CountMinSketch(int depth, int width){
+        if(depth<1 || depth>MAX_DEPTH || Integer.bitCount(width)!=1 || width<(1 << BLOCK_SHIFT)){
+            throw new IllegalArgumentException("Depth must be 1 to "+MAX_DEPTH+" and width a power of two of at least "+(1 << BLOCK_SHIFT));
+        }
+        this.depth = depth;
+        this.blockMask = (depth * width >>> BLOCK_SHIFT) - 1;
+        this.counters = new AtomicIntegerArray(depth * width);
+    }
+
+    public int add(long key, int count){
+        //returns the key's estimate including this add
+        long hash=hash(key);
+        int block=block(hash);
+        int estimate=Integer.MAX_VALUE;
+        for(int row=0;row<depth;row++){
+            estimate=Math.min(estimate,counters.addAndGet(block+slot(hash,row),count));
+        }
+        return estimate;
+    }
+
+    public int estimate(long key){
+        long hash=hash(key);
+        int block=block(hash);
+        int estimate=Integer.MAX_VALUE;
+        for(int row=0;row<depth;row++){
+            estimate=Math.min(estimate,counters.get(block+slot(hash,row)));
+        }
+        return estimate;
+    }
+
+    public int size(){
+        return counters.length();
+    }
+
+    public int get(int index){
+        return counters.get(index);
+    }
+
+    public void set(int index, int count){
+        //for restoring saved counters into a sketch of the same size
+        counters.set(index,count);
+    }
+
+    private static long hash(long key){
+        long hash=(key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash=(hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private int block(long hash){
+        //the high half picks the block, the low half the slot of each row in it
+        return ((int) (hash >>> 32) & blockMask) << BLOCK_SHIFT;
+    }
+
+    private static int slot(long hash, int row){
+        return (int) (hash >>> (row * BLOCK_SHIFT)) & ((1 << BLOCK_SHIFT) - 1);
+    }
+}
@@ -0,0 +1,161 @@
+package com.driver;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class IdBitSet {
+    //Set of dense integer ids that many threads can add to without locking.
+    //Ids live in pages of 4096 that are only allocated once an id in their range is added, so a set holding a
+    //few large ids stays small. A page starts as a sorted array of the ids it holds, replaced on every add, and
+    //becomes a bitmap once the array would outgrow the bitmap's 512 bytes; both are swapped in with a CAS.
+    //So a like on a sparse page allocates a copy of at most 512 bytes, and one on a bitmap page allocates nothing.
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_SHIFT - 6);
+    private static final int SPARSE_MAX = PAGE_SIZE / Short.SIZE;
+    private static final short[] EMPTY = new short[0];
+
+    //a page's content is a short[] or an AtomicLongArray; the holders are shared by every copy of the directory
+    private volatile AtomicReferenceArray<AtomicReference<Object>> pages;
+    private final AtomicInteger size;
+
+    public IdBitSet(){
+        this.pages = new AtomicReferenceArray<>(1);
+        this.size = new AtomicInteger();
+    }
+
+    public boolean add(int id){
+        //returns true if the id was not in the set before
+        AtomicReference<Object> page=page(id >>> PAGE_SHIFT);
+        if(page==null){
+            page=createPage(id >>> PAGE_SHIFT);
+        }
+        int offset=id & (PAGE_SIZE - 1);
+        while(true){
+            Object content=page.get();
+            if(content instanceof AtomicLongArray){
+                return addBit((AtomicLongArray) content,offset);
+            }
+            short[] ids=(short[]) content;
+            int at=Arrays.binarySearch(ids,(short) offset);
+            if(at>=0){
+                return false;
+            }
+            Object grown;
+            if(ids.length<SPARSE_MAX){
+                short[] inserted=new short[ids.length+1];
+                System.arraycopy(ids,0,inserted,0,-at-1);
+                inserted[-at-1]=(short) offset;
+                System.arraycopy(ids,-at-1,inserted,-at,ids.length+at+1);
+                grown=inserted;
+            }else{
+                AtomicLongArray bits=new AtomicLongArray(WORDS_PER_PAGE);
+                for(short existing:ids){
+                    bits.set(existing >>> 6,bits.get(existing >>> 6) | (1L << existing));
+                }
+                bits.set(offset >>> 6,bits.get(offset >>> 6) | (1L << offset));
+                grown=bits;
+            }
+            if(page.compareAndSet(content,grown)){
+                size.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public boolean remove(int id){
+        //returns true if the id was in the set; a bitmap page stays a bitmap
+        AtomicReference<Object> page=page(id >>> PAGE_SHIFT);
+        if(page==null){
+            return false;
+        }
+        int offset=id & (PAGE_SIZE - 1);
+        while(true){
+            Object content=page.get();
+            if(content instanceof AtomicLongArray){
+                AtomicLongArray bits=(AtomicLongArray) content;
+                long mask=1L << offset;
+                long word=bits.get(offset >>> 6);
+                if((word & mask)==0){
+                    return false;
+                }
+                if(bits.compareAndSet(offset >>> 6,word,word & ~mask)){
+                    size.decrementAndGet();
+                    return true;
+                }
+                continue;
+            }
+            short[] ids=(short[]) content;
+            int at=Arrays.binarySearch(ids,(short) offset);
+            if(at<0){
+                return false;
+            }
+            short[] removed=new short[ids.length-1];
+            System.arraycopy(ids,0,removed,0,at);
+            System.arraycopy(ids,at+1,removed,at,ids.length-at-1);
+            if(page.compareAndSet(content,removed)){
+                size.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    private boolean addBit(AtomicLongArray page, int offset){
+        int word=offset >>> 6;
+        long mask=1L << offset;
+        while(true){
+            long bits=page.get(word);
+            if((bits & mask)!=0){
+                return false;
+            }
+            if(page.compareAndSet(word,bits,bits | mask)){
+                size.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public boolean contains(int id){
+        AtomicReference<Object> page=page(id >>> PAGE_SHIFT);
+        if(page==null){
+            return false;
+        }
+        int offset=id & (PAGE_SIZE - 1);
+        Object content=page.get();
+        if(content instanceof AtomicLongArray){
+            return (((AtomicLongArray) content).get(offset >>> 6) & (1L << offset))!=0;
+        }
+        return Arrays.binarySearch((short[]) content,(short) offset)>=0;
+    }
+
+    public int size(){
+        return size.get();
+    }
+
+    private AtomicReference<Object> page(int index){
+        AtomicReferenceArray<AtomicReference<Object>> current=pages;
+        return index<current.length() ? current.get(index) : null;
+    }
+
+    private synchronized AtomicReference<Object> createPage(int index){
+        //pages are created and the directory grown under the lock, so a page is never lost to a concurrent resize
+        AtomicReferenceArray<AtomicReference<Object>> current=pages;
+        if(index>=current.length()){
+            AtomicReferenceArray<AtomicReference<Object>> grown=new AtomicReferenceArray<>(Math.max(index+1,current.length()*2));
+            for(int i=0;i<current.length();i++){
+                grown.set(i,current.get(i));
+            }
+            pages=grown;
+            current=grown;
+        }
+        AtomicReference<Object> page=current.get(index);
+        if(page==null){
+            page=new AtomicReference<>(EMPTY);
+            current.set(index,page);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,146 @@
+package com.driver;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IngestReader implements Closeable {
+    //Reads a bulk upload one line at a time, either NDJSON (one JSON object per line) or CSV with a
+    //header row naming the fields (name,mobile / title,artistName / title,albumName,length).
+    //A line that cannot be parsed raises a RowException with its line number; reading can go on with the next line.
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final BufferedReader reader;
+    private final boolean csv;
+    private String[] header;
+    private int line;
+
+    public IngestReader(InputStream in, String contentType){
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        this.csv = contentType != null && contentType.toLowerCase().contains("csv");
+    }
+
+    public IngestRow next() throws IOException {
+        //returns null at the end of the body
+        String text;
+        do{
+            text = reader.readLine();
+            if(text == null){
+                return null;
+            }
+            line++;
+        }while(text.trim().isEmpty() || (csv && header == null && readHeader(text)));
+
+        IngestRow row;
+        try{
+            row = csv ? parseCsv(text) : MAPPER.readValue(text, IngestRow.class);
+        }catch(IOException | RuntimeException e){
+            row = null;
+        }
+        //a JSON null line parses without error but is no row either
+        if(row == null){
+            row = new IngestRow();
+            row.setLine(line);
+            throw new RowException(row, "Malformed row");
+        }
+        row.setLine(line);
+        return row;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean readHeader(String text){
+        List<String> names = split(text);
+        header = names.toArray(new String[0]);
+        for(int i = 0; i < header.length; i++){
+            header[i] = header[i].trim();
+        }
+        return true;
+    }
+
+    private IngestRow parseCsv(String text){
+        List<String> values = split(text);
+        IngestRow row = new IngestRow();
+        for(int i = 0; i < header.length && i < values.size(); i++){
+            //an empty CSV field counts as a missing one
+            String value = values.get(i).isEmpty() ? null : values.get(i);
+            switch(header[i]){
+                case "name":
+                    row.setName(value);
+                    break;
+                case "mobile":
+                    row.setMobile(value);
+                    break;
+                case "title":
+                    row.setTitle(value);
+                    break;
+                case "artistName":
+                    row.setArtistName(value);
+                    break;
+                case "albumName":
+                    row.setAlbumName(value);
+                    break;
+                case "length":
+                    row.setLength(value == null ? null : Integer.valueOf(value.trim()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return row;
+    }
+
+    private static List<String> split(String text){
+        //comma separated, double quotes around a value allow commas and "" inside it
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(quoted){
+                if(c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"'){
+                    value.append('"');
+                    i++;
+                }else if(c == '"'){
+                    quoted = false;
+                }else{
+                    value.append(c);
+                }
+            }else if(c == '"'){
+                quoted = true;
+            }else if(c == ','){
+                values.add(value.toString());
+                value.setLength(0);
+            }else{
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    public static class RowException extends IOException {
+        private final IngestRow row;
+
+        public RowException(IngestRow row, String message){
+            super(message);
+            this.row = row;
+        }
+
+        public IngestRow getRow() {
+            return row;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.driver;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+public class IntAdjacency {
+    //One-to-many relationship between dense integer ids (an entity's id is its position in the repository lists).
+    //Each source has one int[] row: slot 0 holds how many targets follow, in the order they were added.
+    //Rows live in pages of 1024 sources allocated on first use, the page directory grows like IdBitSet's.
+    //Compared to a map of synchronized lists a row costs one array instead of a map node, a wrapper, a list
+    //and its backing array, and an edge costs an int. Rows grow by half their size, so little is left unused.
+    //A row is read and written under one of LOCKS stripes picked by its source id.
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int LOCKS = 64;
+
+    private volatile AtomicReferenceArray<int[][]> pages;
+    private final Object[] locks;
+    private final AtomicInteger rows;
+    private final AtomicLong edges;
+
+    public IntAdjacency(){
+        this.pages = new AtomicReferenceArray<>(1);
+        this.locks = new Object[LOCKS];
+        for(int i=0;i<LOCKS;i++){
+            locks[i]=new Object();
+        }
+        this.rows = new AtomicInteger();
+        this.edges = new AtomicLong();
+    }
+
+    public void add(int source, int target){
+        //written into the row in place, an array is only allocated when the row grows
+        int[][] page=page(source >>> PAGE_SHIFT);
+        if(page==null){
+            page=createPage(source >>> PAGE_SHIFT);
+        }
+        synchronized (lock(source)){
+            int[] row=room(page,source & (PAGE_SIZE - 1),1);
+            row[1+row[0]]=target;
+            row[0]++;
+        }
+        edges.incrementAndGet();
+    }
+
+    public void addAll(int source, int[] targets, int count){
+        //appends the first count targets to the row of source
+        if(count==0){
+            return;
+        }
+        int[][] page=page(source >>> PAGE_SHIFT);
+        if(page==null){
+            page=createPage(source >>> PAGE_SHIFT);
+        }
+        synchronized (lock(source)){
+            int[] row=room(page,source & (PAGE_SIZE - 1),count);
+            System.arraycopy(targets,0,row,1+row[0],count);
+            row[0]+=count;
+        }
+        edges.addAndGet(count);
+    }
+
+    private int[] room(int[][] page, int slot, int count){
+        //the row at slot, grown if it can't take count more targets; called under the row's lock
+        int[] row=page[slot];
+        int size=row==null ? 0 : row[0];
+        if(row==null || size+count>=row.length){
+            int capacity=Math.max(size+count,size+(size >> 1)+1);
+            int[] grown=new int[1+capacity];
+            if(row==null){
+                rows.incrementAndGet();
+            }else{
+                System.arraycopy(row,0,grown,0,1+size);
+            }
+            row=grown;
+            page[slot]=row;
+        }
+        return row;
+    }
+
+    public boolean contains(int source, int target){
+        int[][] page=page(source >>> PAGE_SHIFT);
+        if(page==null){
+            return false;
+        }
+        synchronized (lock(source)){
+            int[] row=page[source & (PAGE_SIZE - 1)];
+            if(row!=null){
+                for(int i=1;i<=row[0];i++){
+                    if(row[i]==target){
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    public int size(int source){
+        int[][] page=page(source >>> PAGE_SHIFT);
+        if(page==null){
+            return 0;
+        }
+        synchronized (lock(source)){
+            int[] row=page[source & (PAGE_SIZE - 1)];
+            return row==null ? 0 : row[0];
+        }
+    }
+
+    public int read(int source, int from, int[] into){
+        //copies targets from position from on into the buffer, returns how many were copied
+        int[][] page=page(source >>> PAGE_SHIFT);
+        if(page==null){
+            return 0;
+        }
+        synchronized (lock(source)){
+            int[] row=page[source & (PAGE_SIZE - 1)];
+            if(row==null || from>=row[0]){
+                return 0;
+            }
+            int count=Math.min(into.length,row[0]-from);
+            System.arraycopy(row,1+from,into,0,count);
+            return count;
+        }
+    }
+
+    public int[] get(int source){
+        //a copy of every target of source
+        int[] targets=new int[size(source)];
+        int count=read(source,0,targets);
+        //the row can only have grown since size was read, and the copy stops at the buffer's end
+        return count==targets.length ? targets : Arrays.copyOf(targets,count);
+    }
+
+    public <T> Row<T> row(int source, IntFunction<T> resolve){
+        return new Row<>(this,source,resolve);
+    }
+
+    public int rows(){
+        //how many sources have at least one target
+        return rows.get();
+    }
+
+    public long edges(){
+        return edges.get();
+    }
+
+    private Object lock(int source){
+        return locks[source & (LOCKS - 1)];
+    }
+
+    private int[][] page(int index){
+        AtomicReferenceArray<int[][]> current=pages;
+        return index<current.length() ? current.get(index) : null;
+    }
+
+    private synchronized int[][] createPage(int index){
+        AtomicReferenceArray<int[][]> current=pages;
+        if(index>=current.length()){
+            AtomicReferenceArray<int[][]> grown=new AtomicReferenceArray<>(Math.max(index+1,current.length()*2));
+            for(int i=0;i<current.length();i++){
+                grown.set(i,current.get(i));
+            }
+            pages=grown;
+            current=grown;
+        }
+        int[][] page=current.get(index);
+        if(page==null){
+            page=new int[PAGE_SIZE][];
+            current.set(index,page);
+        }
+        return page;
+    }
+
+    public static class Row<T> {
+        //The targets of one source resolved to entities, for callers that page through a live row
+        private final IntAdjacency adjacency;
+        private final int source;
+        private final IntFunction<T> resolve;
+
+        private Row(IntAdjacency adjacency, int source, IntFunction<T> resolve){
+            this.adjacency = adjacency;
+            this.source = source;
+            this.resolve = resolve;
+        }
+
+        public int size(){
+            return adjacency.size(source);
+        }
+
+        public int read(int from, int[] buffer, List<T> into){
+            //resolves up to buffer.length targets from position from on, returns how many were added
+            int count=adjacency.read(source,from,buffer);
+            for(int i=0;i<count;i++){
+                into.add(resolve.apply(buffer[i]));
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.driver;
+
+import java.util.Arrays;
+
+public class IntCountMap {
+    //Map from non-negative int keys to int counts in two parallel arrays with open addressing, so an entry
+    //costs 8 bytes instead of two boxed objects and a hash node. Used as one sparse row of a matrix; the
+    //row's monitor guards it, callers that update several rows take them one at a time.
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    public IntCountMap(){
+        this.keys = new int[4];
+        this.counts = new int[4];
+        Arrays.fill(keys,EMPTY);
+    }
+
+    public synchronized int add(int key, int count){
+        //returns the key's count after the add
+        if((size+1)*4>keys.length*3){
+            resize(keys.length*2);
+        }
+        int slot=slot(keys,key);
+        if(keys[slot]==EMPTY){
+            keys[slot]=key;
+            size++;
+        }
+        counts[slot]+=count;
+        return counts[slot];
+    }
+
+    public synchronized int get(int key){
+        int slot=slot(keys,key);
+        return keys[slot]==EMPTY ? 0 : counts[slot];
+    }
+
+    public synchronized int size(){
+        return size;
+    }
+
+    public synchronized void forEach(Entries entries){
+        for(int i=0;i<keys.length;i++){
+            if(keys[i]!=EMPTY){
+                entries.accept(keys[i],counts[i]);
+            }
+        }
+    }
+
+    private void resize(int capacity){
+        int[] oldKeys=keys;
+        int[] oldCounts=counts;
+        keys=new int[capacity];
+        counts=new int[capacity];
+        Arrays.fill(keys,EMPTY);
+        for(int i=0;i<oldKeys.length;i++){
+            if(oldKeys[i]!=EMPTY){
+                int slot=slot(keys,oldKeys[i]);
+                keys[slot]=oldKeys[i];
+                counts[slot]=oldCounts[i];
+            }
+        }
+    }
+
+    private static int slot(int[] keys, int key){
+        //linear probing from a mixed hash, ids are dense so the raw key would cluster
+        int mask=keys.length-1;
+        int hash=key * 0x9E3779B9;
+        int slot=(hash ^ (hash >>> 16)) & mask;
+        while(keys[slot]!=EMPTY && keys[slot]!=key){
+            slot=(slot+1) & mask;
+        }
+        return slot;
+    }
+
+    public interface Entries {
+        void accept(int key, int count);
+    }
+}
@@ -0,0 +1,85 @@
+package com.driver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+public class JsonPage {
+    //One page of a repository relationship row, streamed as {"items":[...],"next":"<cursor>"}.
+    //Rows only ever grow at the end, so the cursor is simply the offset of the next item: a page costs
+    //the same however deep it is, and items added meanwhile don't shift the pages already read.
+    //Items are copied out of the row CHUNK at a time, so the row lock is never held while writing to the
+    //client and a large page is never built in memory. "next" is null once the end of the row was reached.
+
+    public static final int MAX_LIMIT = SpotifySettings.getInt("spotify.page.max-limit", 100000);
+
+    private static final int CHUNK = 256;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    public interface ItemWriter<T> {
+        void write(JsonGenerator json, T item) throws IOException;
+    }
+
+    private JsonPage(){
+
+    }
+
+    public static <T> StreamingResponseBody of(IntAdjacency.Row<T> row, String cursor, int limit, ItemWriter<T> writer) throws Exception {
+        //arguments are checked here, before the response is committed, so bad ones still fail the request
+        int start=parseCursor(cursor);
+        if(limit<1 || limit>MAX_LIMIT){
+            throw new Exception("Limit must be between 1 and "+MAX_LIMIT);
+        }
+        return out -> write(out,row,start,limit,writer);
+    }
+
+    private static <T> void write(OutputStream out, IntAdjacency.Row<T> row, int start, int limit, ItemWriter<T> writer) throws IOException {
+        int[] ids=new int[Math.min(CHUNK,limit)];
+        List<T> chunk=new ArrayList<>(ids.length);
+        try(JsonGenerator json=JSON.createGenerator(out,JsonEncoding.UTF8)){
+            json.writeStartObject();
+            json.writeArrayFieldStart("items");
+            int position=start;
+            int end=(int) Math.min(Integer.MAX_VALUE,(long) start+limit);
+            while(position<end){
+                chunk.clear();
+                int[] buffer=end-position<ids.length ? new int[end-position] : ids;
+                if(row.read(position,buffer,chunk)==0){
+                    break;
+                }
+                for(T item:chunk){
+                    writer.write(json,item);
+                }
+                position+=chunk.size();
+            }
+            json.writeEndArray();
+            if(position>=row.size()){
+                json.writeNullField("next");
+            }else{
+                json.writeStringField("next",Integer.toString(position));
+            }
+            json.writeEndObject();
+        }
+    }
+
+    private static int parseCursor(String cursor) throws Exception {
+        if(cursor==null || cursor.isEmpty()){
+            return 0;
+        }
+        try{
+            int offset=Integer.parseInt(cursor);
+            if(offset>=0){
+                return offset;
+            }
+        }catch(NumberFormatException e){
+            //reported below
+        }
+        throw new Exception("Invalid cursor");
+    }
+}
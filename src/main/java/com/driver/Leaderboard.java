@@ -0,0 +1,115 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+public class Leaderboard<T> {
+    //Ranks ordered by likes (highest first), ties go to the entry created first, same as the old linear scans
+    private final ConcurrentSkipListSet<Rank<T>> ranking;
+    private final ConcurrentHashMap<T, Rank<T>> current;
+    private final ToIntFunction<T> likes;
+    private final ToIntFunction<T> id;
+    //adds likes to an entry's own counter
+    private final ObjIntConsumer<T> addLikes;
+
+    public Leaderboard(ToIntFunction<T> likes, ToIntFunction<T> id, ObjIntConsumer<T> addLikes){
+        this.likes = likes;
+        this.id = id;
+        this.addLikes = addLikes;
+        this.ranking = new ConcurrentSkipListSet<>();
+        this.current = new ConcurrentHashMap<>();
+    }
+
+    public void add(T entry){
+        Rank<T> rank=new Rank<>(entry,likes.applyAsInt(entry),id.applyAsInt(entry));
+        current.put(entry,rank);
+        ranking.add(rank);
+    }
+
+    public void addLikes(T entry, int count){
+        //each entry is re-ranked under its own lock; the new rank goes in before the old one leaves
+        //so readers never see the entry missing from the board. Ranks are immutable keys of the skip list,
+        //so a move allocates the new rank and its node.
+        synchronized (entry){
+            Rank<T> old=current.get(entry);
+            addLikes.accept(entry,count);
+            Rank<T> rank=new Rank<>(entry,likes.applyAsInt(entry),id.applyAsInt(entry));
+            if(old!=null && old.compareTo(rank)==0){
+                return;
+            }
+            ranking.add(rank);
+            current.put(entry,rank);
+            if(old!=null){
+                ranking.remove(old);
+            }
+        }
+    }
+
+    public T top(){
+        Rank<T> rank=ranking.isEmpty() ? null : ranking.first();
+        return rank==null ? null : rank.entry;
+    }
+
+    public List<T> top(int k){
+        List<T> result=new ArrayList<>();
+        Set<T> seen=Collections.newSetFromMap(new IdentityHashMap<>());
+        for(Rank<T> rank:ranking){
+            if(result.size()>=k){
+                break;
+            }
+            //an entry being re-ranked can briefly appear twice
+            if(seen.add(rank.entry)){
+                result.add(rank.entry);
+            }
+        }
+        return result;
+    }
+
+    public List<T> top(int k, int minLikes, Predicate<T> accept, int budget){
+        //The first k accepted entries with at least minLikes likes, highest first. Visits at most budget ranks
+        //and returns null if they ran out first, so a caller can try a cheaper way to find the entries.
+        List<T> result=new ArrayList<>();
+        Set<T> seen=Collections.newSetFromMap(new IdentityHashMap<>());
+        int visited=0;
+        for(Rank<T> rank:ranking){
+            if(result.size()>=k || rank.likes<minLikes){
+                return result;
+            }
+            if(++visited>budget){
+                return null;
+            }
+            if(seen.add(rank.entry) && accept.test(rank.entry)){
+                result.add(rank.entry);
+            }
+        }
+        return result;
+    }
+
+    public int size(){
+        return current.size();
+    }
+
+    private static class Rank<T> implements Comparable<Rank<T>> {
+        private final T entry;
+        private final int likes;
+        private final int id;
+
+        private Rank(T entry, int likes, int id){
+            this.entry = entry;
+            this.likes = likes;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Rank<T> other){
+            if(likes!=other.likes){
+                return Integer.compare(other.likes,likes);
+            }
+            return Integer.compare(id,other.id);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.driver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class LikePipeline implements Closeable {
+    //Opt-in asynchronous like path (spotify.likes.async). likeSong validates the call and claims the like in
+    //the song's liker bitset on the request thread, then queues it; consumer threads drain the queue in
+    //batches and apply every song's and every artist's likes with one leaderboard move each.
+    //A user sees their own like at once (a repeat is a no-op straight away), counts catch up within a batch.
+    //A batch that fails to apply gives back the claims of the likes it had not counted yet, so the users can
+    //like those songs again.
+    //close refuses new reservations, waits for the reserved likes to be submitted or released, then lets the
+    //consumers empty the queue.
+
+    private static final Logger LOG = LoggerFactory.getLogger(LikePipeline.class);
+
+    public enum Backpressure {
+        //wait for room in the queue
+        BLOCK,
+        //fail the call with "Too many likes, try again later"
+        REJECT,
+        //apply the like on the request thread, as if the pipeline were off
+        CALLER_RUNS
+    }
+
+    private final SpotifyRepository repository;
+    private final ArrayBlockingQueue<Like> queue;
+    //one permit per free queue slot, taken before the like is claimed so a claimed like always fits
+    private final Semaphore slots;
+    private final Backpressure backpressure;
+    private final int batchSize;
+    private final Thread[] consumers;
+
+    //guarded by this
+    private long submitted;
+    private long applied;
+    //reservations not yet submitted or released
+    private int reserved;
+    private boolean closed;
+
+    public LikePipeline(SpotifyRepository repository, int capacity, int consumerCount, int batchSize, Backpressure backpressure){
+        this.repository = repository;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.slots = new Semaphore(capacity);
+        this.backpressure = backpressure;
+        this.batchSize = batchSize;
+        this.consumers = new Thread[consumerCount];
+        for(int i=0;i<consumerCount;i++){
+            consumers[i]=new Thread(this::consume,"spotify-like-consumer-"+i);
+            consumers[i].setDaemon(true);
+            consumers[i].start();
+        }
+    }
+
+    public boolean reserve() throws Exception {
+        //false means the caller should apply the like itself
+        synchronized (this){
+            if(closed){
+                return false;
+            }
+            reserved++;
+        }
+        boolean acquired=false;
+        try{
+            switch(backpressure){
+                case BLOCK:
+                    slots.acquire();
+                    acquired=true;
+                    break;
+                case REJECT:
+                    if(!slots.tryAcquire()){
+                        throw new Exception("Too many likes, try again later");
+                    }
+                    acquired=true;
+                    break;
+                default:
+                    acquired=slots.tryAcquire();
+            }
+            return acquired;
+        }finally{
+            if(!acquired){
+                unreserve();
+            }
+        }
+    }
+
+    public void release(){
+        //gives back a reservation that was not submitted, e.g. a repeated like
+        slots.release();
+        unreserve();
+    }
+
+    public void submit(Song song, User user){
+        //only with a reservation, which this uses up
+        synchronized (this){
+            submitted++;
+        }
+        queue.add(new Like(song,user));
+        unreserve();
+    }
+
+    private synchronized void unreserve(){
+        reserved--;
+        notifyAll();
+    }
+
+    public synchronized void awaitIdle() throws InterruptedException {
+        //waits until every like submitted so far has been applied
+        long target=submitted;
+        while(applied<target){
+            wait();
+        }
+    }
+
+    private void consume(){
+        List<Like> batch=new ArrayList<>(batchSize);
+        Set<Song> counted=new HashSet<>();
+        while(true){
+            try{
+                Like first=queue.poll(100,TimeUnit.MILLISECONDS);
+                if(first==null){
+                    if(drained()){
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch,batchSize-1);
+            }catch(InterruptedException e){
+                return;
+            }
+            try{
+                Map<Song, List<User>> likes=new HashMap<>();
+                for(Like like:batch){
+                    likes.computeIfAbsent(like.song,s->new ArrayList<>()).add(like.user);
+                }
+                repository.applyLikes(likes,counted);
+                repository.publishView();
+            }catch(RuntimeException e){
+                //the claims of uncounted likes are given back so a retry isn't taken for a repeat; the request
+                //already returned
+                int failed=0;
+                for(Like like:batch){
+                    if(!counted.contains(like.song)){
+                        repository.unclaimLike(like.song,like.user);
+                        failed++;
+                    }
+                }
+                LOG.error("Could not apply a batch of {} likes, the claims of {} uncounted ones are released",batch.size(),failed,e);
+                SpotifyMetrics.FAILED_LIKES.increment(failed);
+            }finally{
+                slots.release(batch.size());
+                synchronized (this){
+                    applied+=batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+                counted.clear();
+            }
+        }
+    }
+
+    private synchronized boolean drained(){
+        //true once closing, no reserved like can still be submitted and every submitted one has been taken;
+        //a submit adds to the queue before giving its reservation back, so an empty queue here stays empty
+        return closed && reserved==0 && queue.isEmpty();
+    }
+
+    @Override
+    public void close(){
+        //applies what is queued; later calls fall back to the synchronous path
+        synchronized (this){
+            closed=true;
+        }
+        for(Thread consumer:consumers){
+            try{
+                consumer.join();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static class Like {
+        private final Song song;
+        private final User user;
+
+        private Like(Song song, User user){
+            this.song = song;
+            this.user = user;
+        }
+    }
+}
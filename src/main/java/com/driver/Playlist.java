@@ -4,6 +4,7 @@ import java.util.List;
 
 public class Playlist {
     private String title;
+    private int id;
 
     public Playlist(){
 
@@ -20,4 +21,12 @@ public class Playlist {
     public void setTitle(String title) {
         this.title = title;
     }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
 }
@@ -0,0 +1,133 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+public class ReadView {
+    //Immutable copy of what the GET endpoints serve: the top of both leaderboards and the catalog counts.
+    //Writers build a new one and publish it whole, readers only dereference the current one.
+
+    //parts of the view a write made stale, see build
+    public static final int SONGS = 1;
+    public static final int ARTISTS = 2;
+
+    private final long version;
+    private final Top<Song> topSongs;
+    private final Top<Artist> topArtists;
+    private final int users;
+    private final int songs;
+    private final int albums;
+    private final int artists;
+    private final int playlists;
+
+    private ReadView(long version, Top<Song> topSongs, Top<Artist> topArtists, int users, int songs, int albums, int artists, int playlists){
+        this.version = version;
+        this.topSongs = topSongs;
+        this.topArtists = topArtists;
+        this.users = users;
+        this.songs = songs;
+        this.albums = albums;
+        this.artists = artists;
+        this.playlists = playlists;
+    }
+
+    public static ReadView empty(int size){
+        return new ReadView(0,new Top<>(Collections.emptyList(),Song::getTitle,size),new Top<>(Collections.emptyList(),Artist::getName,size),0,0,0,0,0);
+    }
+
+    public static ReadView build(long version, SpotifyRepository repository, ReadView previous, int stale){
+        //re-reads only the leaderboards named in stale, the counts are always current
+        Top<Song> topSongs=previous.topSongs;
+        if((stale & SONGS)!=0){
+            topSongs=new Top<>(repository.songLeaderboard.top(topSongs.size),Song::getTitle,topSongs.size);
+        }
+        Top<Artist> topArtists=previous.topArtists;
+        if((stale & ARTISTS)!=0){
+            topArtists=new Top<>(repository.artistLeaderboard.top(topArtists.size),Artist::getName,topArtists.size);
+        }
+        return new ReadView(version,topSongs,topArtists,repository.userCount(),repository.songs.size(),
+                repository.albums.size(),repository.artists.size(),repository.playlists.size());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<String> getTopSongs() {
+        return topSongs.names;
+    }
+
+    public List<String> getTopArtists() {
+        return topArtists.names;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getSongs() {
+        return songs;
+    }
+
+    public int getAlbums() {
+        return albums;
+    }
+
+    public int getArtists() {
+        return artists;
+    }
+
+    public int getPlaylists() {
+        return playlists;
+    }
+
+    boolean reorderedBy(Song song) {
+        //true when the song, after gaining a like, would move up in or into topSongs
+        return topSongs.reorderedBy(song,Song::getLikes,Song::getId);
+    }
+
+    boolean reorderedBy(Artist artist) {
+        return topArtists.reorderedBy(artist,Artist::getLikes,Artist::getId);
+    }
+
+    private static class Top<T> {
+        private final List<T> entries;
+        private final List<String> names;
+        private final IdentityHashMap<T, Integer> positions;
+        private final int size;
+
+        private Top(List<T> entries, Function<T, String> name, int size){
+            this.entries = entries;
+            this.size = size;
+            this.positions = new IdentityHashMap<>();
+            List<String> names=new ArrayList<>(entries.size());
+            for(T entry:entries){
+                positions.put(entry,names.size());
+                names.add(name.apply(entry));
+            }
+            this.names = Collections.unmodifiableList(names);
+        }
+
+        private boolean reorderedBy(T entry, ToIntFunction<T> likes, ToIntFunction<T> id) {
+            //likes only grow, so an entry can only overtake the one ranked just above it, or the last one
+            //when it is not listed yet
+            Integer position=positions.get(entry);
+            if(position==null){
+                if(entries.size()<size){
+                    return true;
+                }
+                position=entries.size();
+            }
+            if(position==0){
+                return false;
+            }
+            T above=entries.get(position-1);
+            int difference=likes.applyAsInt(entry)-likes.applyAsInt(above);
+            return difference>0 || difference==0 && id.applyAsInt(entry)<id.applyAsInt(above);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+public class Recommender {
+    //"Users who liked this also liked". Every like pairs the song with the user's last history likes (see
+    //UserShard.recordRecentLike); pair counts go to a CountMinSketch first and only pairs liked together
+    //minCooccurrence times get an exact entry in the two songs' sparse co-occurrence rows, so the long tail
+    //of pairs seen once costs no memory. A song's neighbors are its co-liked songs ranked by
+    //count / sqrt(likes * other likes), so a song liked by everyone doesn't top every list; refresh recomputes
+    //them for the songs whose rows changed, split over the fork-join pool. Responses are kept in bounded LRU
+    //caches, so a hot song's neighbors are computed once per refresh. Every refresh starts a new generation;
+    //entries are stamped with the generation they were computed in, taken before computing, so one that was
+    //still being computed when refresh ran is a miss rather than served as current.
+
+    private static final int SPLIT_BELOW = 64;
+
+    private final SpotifyRepository repository;
+    private final int history;
+    private final int neighborCount;
+    private final int minCooccurrence;
+
+    private final CountMinSketch pairCounts;
+    private final ConcurrentHashMap<Song, IntCountMap> cooccurrence;
+    private final ConcurrentHashMap<Song, Neighbors> neighbors;
+    //songs whose rows changed since the last refresh
+    private final Set<Song> dirty;
+    //keyed by song id or user id and k, see key; recommendations are kept as song ids, see recommend
+    private final BoundedCache<Long, Stamped<List<String>>> similarCache;
+    private final BoundedCache<Long, Stamped<int[]>> recommendCache;
+    private final AtomicLong generation;
+
+    public Recommender(SpotifyRepository repository, int history, int neighborCount, int minCooccurrence, int sketchWidth, int cacheSize){
+        this.repository = repository;
+        this.history = history;
+        this.neighborCount = neighborCount;
+        this.minCooccurrence = Math.max(1,minCooccurrence);
+        this.pairCounts = new CountMinSketch(4,sketchWidth);
+        this.cooccurrence = new ConcurrentHashMap<>();
+        this.neighbors = new ConcurrentHashMap<>();
+        this.dirty = ConcurrentHashMap.newKeySet();
+        this.similarCache = new BoundedCache<>(cacheSize);
+        this.recommendCache = new BoundedCache<>(cacheSize);
+        this.generation = new AtomicLong();
+    }
+
+    public void record(Song song, int[] recent, int size){
+        //the first size of recent are the song ids the user liked before this song
+        int id=song.getId();
+        IntCountMap songRow=null;
+        for(int i=0;i<size;i++){
+            int other=recent[i];
+            if(other==id){
+                continue;
+            }
+            int estimate=pairCounts.add(((long) Math.min(id,other) << 32) | Math.max(id,other),1);
+            if(estimate<minCooccurrence){
+                continue;
+            }
+            //the add that reaches the threshold promotes the pair with everything counted so far
+            int count=estimate==minCooccurrence ? estimate : 1;
+            if(songRow==null){
+                songRow=row(song);
+                dirty.add(song);
+            }
+            Song otherSong=repository.songs.get(other);
+            songRow.add(other,count);
+            row(otherSong).add(id,count);
+            dirty.add(otherSong);
+        }
+    }
+
+    private IntCountMap row(Song song){
+        return cooccurrence.computeIfAbsent(song,s->new IntCountMap());
+    }
+
+    public void refresh(){
+        //the caches are dropped even when no row changed: a like that pairs with nothing still changes the
+        //user's recommendations
+        if(!dirty.isEmpty()){
+            List<Song> changed=new ArrayList<>();
+            Iterator<Song> songs=dirty.iterator();
+            while(songs.hasNext()){
+                changed.add(songs.next());
+                songs.remove();
+            }
+            Song[] partition=changed.toArray(new Song[0]);
+            ForkJoinPool.commonPool().invoke(new Rebuild(partition,0,partition.length));
+        }
+        generation.incrementAndGet();
+        similarCache.clear();
+        recommendCache.clear();
+    }
+
+    private <T> T cached(BoundedCache<Long, Stamped<T>> cache, long key, Supplier<T> loader){
+        long stamp=generation.get();
+        Stamped<T> entry=cache.get(key);
+        if(entry!=null && entry.generation==stamp){
+            return entry.value;
+        }
+        T value=loader.get();
+        cache.put(key,new Stamped<>(stamp,value));
+        return value;
+    }
+
+    public List<String> similar(Song song, int k){
+        return cached(similarCache,key(song.getId(),k),()->{
+            Neighbors songNeighbors=neighbors(song);
+            List<String> titles=new ArrayList<>();
+            for(int i=0;i<songNeighbors.ids.length && titles.size()<k;i++){
+                titles.add(repository.songs.get(songNeighbors.ids[i]).getTitle());
+            }
+            return Collections.unmodifiableList(titles);
+        });
+    }
+
+    public List<String> recommend(User user, int[] recent, int k){
+        //Songs that neighbor the user's recent likes, summing the scores of every recent like they neighbor and
+        //skipping songs the user already liked. Users with too little history get the most popular songs they
+        //haven't liked. A like shows up in the user's recommendations after the next refresh; until then a
+        //cached list only loses the songs the user has liked since, so it may be shorter than k.
+        int[] ids=cached(recommendCache,key(user.getId(),k),()->{
+            Map<Integer, Double> scores=new HashMap<>();
+            for(int id:recent){
+                Neighbors songNeighbors=neighbors(repository.songs.get(id));
+                for(int i=0;i<songNeighbors.ids.length;i++){
+                    if(!liked(repository.songs.get(songNeighbors.ids[i]),user)){
+                        scores.merge(songNeighbors.ids[i],(double) songNeighbors.scores[i],Double::sum);
+                    }
+                }
+            }
+            List<Map.Entry<Integer, Double>> ranked=new ArrayList<>(scores.entrySet());
+            ranked.sort(Map.Entry.<Integer, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+            int[] best=new int[k];
+            int size=0;
+            for(int i=0;i<ranked.size() && size<k;i++){
+                best[size++]=ranked.get(i).getKey();
+            }
+            if(size<k){
+                for(Song song:repository.songLeaderboard.top(k+recent.length)){
+                    if(size==k){
+                        break;
+                    }
+                    if(!liked(song,user) && !scores.containsKey(song.getId())){
+                        best[size++]=song.getId();
+                    }
+                }
+            }
+            return Arrays.copyOf(best,size);
+        });
+        List<String> titles=new ArrayList<>(ids.length);
+        for(int id:ids){
+            Song song=repository.songs.get(id);
+            if(!liked(song,user)){
+                titles.add(song.getTitle());
+            }
+        }
+        return titles;
+    }
+
+    private boolean liked(Song song, User user){
+        IdBitSet likers=repository.songLikers.get(song);
+        return likers!=null && likers.contains(user.getId());
+    }
+
+    private Neighbors neighbors(Song song){
+        //songs never refreshed yet, e.g. on a repository made with new, are ranked on first read
+        Neighbors songNeighbors=neighbors.get(song);
+        if(songNeighbors==null){
+            songNeighbors=rank(song);
+            Neighbors existing=neighbors.putIfAbsent(song,songNeighbors);
+            if(existing!=null){
+                songNeighbors=existing;
+            }
+        }
+        return songNeighbors;
+    }
+
+    private Neighbors rank(Song song){
+        IntCountMap row=cooccurrence.get(song);
+        if(row==null){
+            return Neighbors.EMPTY;
+        }
+        int[] ids;
+        int[] counts;
+        synchronized (row){
+            ids=new int[row.size()];
+            counts=new int[ids.length];
+            int[] next=new int[1];
+            row.forEach((id,count)->{
+                ids[next[0]]=id;
+                counts[next[0]]=count;
+                next[0]++;
+            });
+        }
+        double likes=Math.max(1,song.getLikes());
+        double[] scores=new double[ids.length];
+        for(int i=0;i<ids.length;i++){
+            scores[i]=counts[i] / Math.sqrt(likes * Math.max(1,repository.songs.get(ids[i]).getLikes()));
+        }
+        //the neighborCount best, ties to the song created first
+        Comparator<Integer> order=Comparator.<Integer>comparingDouble(i->scores[i]).reversed().thenComparingInt(i->ids[i]);
+        PriorityQueue<Integer> heap=new PriorityQueue<>(order.reversed());
+        for(int i=0;i<ids.length;i++){
+            heap.add(i);
+            if(heap.size()>neighborCount){
+                heap.poll();
+            }
+        }
+        List<Integer> best=new ArrayList<>(heap);
+        best.sort(order);
+        Neighbors ranked=new Neighbors(best.size());
+        for(int i=0;i<best.size();i++){
+            ranked.ids[i]=ids[best.get(i)];
+            ranked.scores[i]=(float) scores[best.get(i)];
+        }
+        return ranked;
+    }
+
+    private static long key(int id, int k){
+        return ((long) id << 32) | k;
+    }
+
+    public int getHistory(){
+        return history;
+    }
+
+    public int getNeighborCount(){
+        return neighborCount;
+    }
+
+    public int rows(){
+        return cooccurrence.size();
+    }
+
+    public long entries(){
+        long entries=0;
+        for(IntCountMap row:cooccurrence.values()){
+            entries+=row.size();
+        }
+        return entries;
+    }
+
+    public int ranked(){
+        return neighbors.size();
+    }
+
+    public int cached(){
+        return similarCache.size()+recommendCache.size();
+    }
+
+    //Saving and restoring: snapshots and dumps hold likes grouped by song, not in the order each user made them,
+    //so the pair counts and rows are saved as they are rather than recorded again from the likes on load.
+
+    public int pairCountSize(){
+        return pairCounts.size();
+    }
+
+    public int[] pairCounts(int from, int to){
+        int[] counts=new int[to-from];
+        for(int i=0;i<counts.length;i++){
+            counts[i]=pairCounts.get(from+i);
+        }
+        return counts;
+    }
+
+    public void restorePairCounts(int size, int from, int[] counts){
+        //counts saved by a sketch of another size (spotify.recommend.sketch-width) can't be placed, they are dropped
+        if(size!=pairCounts.size()){
+            return;
+        }
+        for(int i=0;i<counts.length;i++){
+            pairCounts.set(from+i,counts[i]);
+        }
+    }
+
+    public List<Song> rowSongs(){
+        return new ArrayList<>(cooccurrence.keySet());
+    }
+
+    public int[][] rowEntries(Song song){
+        //the song's co-liked song ids and their counts
+        IntCountMap row=cooccurrence.get(song);
+        if(row==null){
+            return new int[][]{new int[0],new int[0]};
+        }
+        synchronized (row){
+            int[][] entries={new int[row.size()],new int[row.size()]};
+            int[] next=new int[1];
+            row.forEach((id,count)->{
+                entries[0][next[0]]=id;
+                entries[1][next[0]]=count;
+                next[0]++;
+            });
+            return entries;
+        }
+    }
+
+    public void restoreRow(Song song, int[] ids, int[] counts){
+        IntCountMap songRow=row(song);
+        for(int i=0;i<ids.length;i++){
+            songRow.add(ids[i],counts[i]);
+        }
+        dirty.add(song);
+    }
+
+    private class Rebuild extends RecursiveAction {
+        //ranks one partition of the changed songs, halving it until it is small enough to rank in place
+        private final Song[] songs;
+        private final int from;
+        private final int to;
+
+        private Rebuild(Song[] songs, int from, int to){
+            this.songs = songs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to-from<=SPLIT_BELOW){
+                for(int i=from;i<to;i++){
+                    neighbors.put(songs[i],rank(songs[i]));
+                }
+                return;
+            }
+            int middle=(from+to) >>> 1;
+            invokeAll(new Rebuild(songs,from,middle),new Rebuild(songs,middle,to));
+        }
+    }
+
+    private static final class Stamped<T> {
+        //a cached answer and the generation it was computed in
+        private final long generation;
+        private final T value;
+
+        private Stamped(long generation, T value){
+            this.generation = generation;
+            this.value = value;
+        }
+    }
+
+    private static final class Neighbors {
+        private static final Neighbors EMPTY = new Neighbors(0);
+
+        private final int[] ids;
+        private final float[] scores;
+
+        private Neighbors(int size){
+            this.ids = new int[size];
+            this.scores = new float[size];
+        }
+    }
+}
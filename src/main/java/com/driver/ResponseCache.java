@@ -0,0 +1,115 @@
+package com.driver;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ResponseCache {
+    //Answers of the service's read methods, kept in a BoundedCache for at most ttl. Each answer depends on
+    //regions of the repository; writers bump the generation of the regions they change, and an answer
+    //stamped with older generations is a miss. The stamp is taken before the answer is computed, so a write
+    //that lands while it is computed makes it stale rather than cached as current. The ttl bounds answers
+    //that change without a write, and a race between a put and an eviction.
+
+    //regions of the repository an answer is computed from, see changed
+    public static final int SONGS = 1;
+    public static final int ARTISTS = 2;
+    //every leaderboard rank, not only the ones the read view keeps
+    public static final int RANKINGS = 4;
+    //titles of songs, albums and artists
+    public static final int CATALOG = 8;
+    public static final int TRENDING = 16;
+    public static final int LISTENERS = 32;
+    private static final int REGIONS = 6;
+
+    private static final Counter HITS = Metrics.counter("spotify.cache.requests","result","hit");
+    private static final Counter MISSES = Metrics.counter("spotify.cache.requests","result","miss");
+
+    static {
+        Gauge.builder("spotify.cache.hit.ratio",()->{
+                    double hits=HITS.count();
+                    double total=hits+MISSES.count();
+                    return total==0 ? 0 : hits / total;
+                })
+                .description("Share of cached read calls answered from the response cache")
+                .register(Metrics.globalRegistry);
+    }
+
+    //null when the cache is off, every call then goes to the loader
+    private final BoundedCache<List<Object>, Entry> entries;
+    private final long ttlNanos;
+    private final AtomicLongArray generations;
+
+    public ResponseCache(int capacity, long ttlMillis){
+        this.entries = capacity>0 && ttlMillis>0 ? new BoundedCache<>(capacity) : null;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.generations = new AtomicLongArray(REGIONS);
+    }
+
+    public static List<Object> key(Object... parts){
+        return Arrays.asList(parts);
+    }
+
+    public <T, E extends Exception> T get(int regions, List<Object> key, SpotifyMetrics.Call<T, E> loader) throws E {
+        //failed calls are not cached, the exception goes to the caller
+        if(entries==null){
+            return loader.apply();
+        }
+        long stamp=stamp(regions);
+        long now=System.nanoTime();
+        Entry entry=entries.get(key);
+        if(entry!=null && entry.stamp==stamp && now-entry.loaded<ttlNanos){
+            HITS.increment();
+            @SuppressWarnings("unchecked")
+            T value=(T) entry.value;
+            return value;
+        }
+        MISSES.increment();
+        T value=loader.apply();
+        if(value!=null){
+            entries.put(key,new Entry(value,stamp,now));
+        }
+        return value;
+    }
+
+    public void changed(int regions){
+        //called by writers once their change is visible to readers
+        for(int i=0;i<REGIONS;i++){
+            if((regions & (1 << i))!=0){
+                generations.incrementAndGet(i);
+            }
+        }
+    }
+
+    public int size(){
+        return entries==null ? 0 : entries.size();
+    }
+
+    private long stamp(int regions){
+        //generations only grow, so the sum over the regions changes whenever one of them does
+        long stamp=0;
+        for(int i=0;i<REGIONS;i++){
+            if((regions & (1 << i))!=0){
+                stamp+=generations.get(i);
+            }
+        }
+        return stamp;
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long stamp;
+        private final long loaded;
+
+        private Entry(Object value, long stamp, long loaded){
+            this.value = value;
+            this.stamp = stamp;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.driver;
+
+public class SearchHit {
+    //One /search result: what was found, its title, and whether it matched as a prefix or with typos
+    private String type;
+    private String title;
+    private String match;
+
+    public SearchHit(){
+
+    }
+
+    public SearchHit(String type, String title, String match){
+        this.type = type;
+        this.title = title;
+        this.match = match;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getMatch() {
+        return match;
+    }
+
+    public void setMatch(String match) {
+        this.match = match;
+    }
+}
@@ -0,0 +1,365 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+public class SearchIndex<T> {
+    //Title search over one entity type, updated as entities are created.
+    //Prefix queries walk a sorted map of normalized titles from the prefix onwards, so they cost
+    //O(log n + limit) whatever the catalog size. Typo-tolerant queries use a trigram index over the
+    //distinct titles and verify candidates with a bounded edit distance.
+
+    //titles per range of a bulk add
+    private static final int BULK_RANGE = 8192;
+
+    //postings read beyond the minimum, each one lets the count filter drop more candidates before verifying
+    private static final int EXTRA_POSTINGS = 2;
+
+    //values are arrays, replaced whole on the rare duplicate title, to keep millions of titles small
+    private final ConcurrentSkipListMap<String, Object[]> titles;
+    //distinct normalized titles by dense id, and the ids of the titles containing each trigram;
+    //keys is replaced by a larger copy when full, a reader's copy covers every id it can find in a posting
+    private volatile String[] keys;
+    private int keyCount;
+    private final ConcurrentHashMap<String, IntList> trigrams;
+
+    public SearchIndex(){
+        this.titles = new ConcurrentSkipListMap<>();
+        this.keys = new String[1024];
+        this.trigrams = new ConcurrentHashMap<>();
+    }
+
+    public void add(String title, T value){
+        if(title==null){
+            return;
+        }
+        String key=normalize(title);
+        Object[] single={value};
+        if(titles.putIfAbsent(key,single)!=null){
+            titles.merge(key,single,(old,added)->{
+                Object[] values=Arrays.copyOf(old,old.length+1);
+                values[old.length]=value;
+                return values;
+            });
+            return;
+        }
+        int id;
+        synchronized (this){
+            id=keyCount++;
+            if(id==keys.length){
+                keys=Arrays.copyOf(keys,id * 2);
+            }
+            keys[id]=key;
+        }
+        for(String trigram:new LinkedHashSet<>(trigrams(key))){
+            trigrams.computeIfAbsent(trigram,t->new IntList()).add(id);
+        }
+    }
+
+    public void addAll(List<T> values, Function<T, String> title){
+        //Same result as add for each value in order, for loading a catalog at once. Titles are normalized and
+        //new titles' trigrams collected per range on the fork-join pool; each range's postings are then
+        //appended whole, in range order, instead of every title taking the lock of every common trigram.
+        int ranges=(values.size()+BULK_RANGE-1) / BULK_RANGE;
+        List<ForkJoinTask<String[]>> normalizing=new ArrayList<>(ranges);
+        for(int r=0;r<ranges;r++){
+            List<T> range=values.subList(r * BULK_RANGE,Math.min(values.size(),(r+1) * BULK_RANGE));
+            normalizing.add(ForkJoinPool.commonPool().submit(()->{
+                String[] keys=new String[range.size()];
+                for(int i=0;i<keys.length;i++){
+                    String value=title.apply(range.get(i));
+                    keys[i]=value==null ? null : normalize(value);
+                }
+                return keys;
+            }));
+        }
+
+        //titles and ids in order, the new distinct titles of each range are kept for their trigrams
+        List<String[]> added=new ArrayList<>(ranges);
+        for(int r=0;r<ranges;r++){
+            String[] normalized=normalizing.get(r).join();
+            String[] fresh=new String[normalized.length];
+            int count=0;
+            for(int i=0;i<normalized.length;i++){
+                String key=normalized[i];
+                if(key==null){
+                    continue;
+                }
+                Object[] single={values.get(r * BULK_RANGE+i)};
+                if(titles.putIfAbsent(key,single)!=null){
+                    titles.merge(key,single,(old,more)->{
+                        Object[] merged=Arrays.copyOf(old,old.length+1);
+                        merged[old.length]=more[0];
+                        return merged;
+                    });
+                }else{
+                    fresh[count++]=key;
+                }
+            }
+            added.add(Arrays.copyOf(fresh,count));
+        }
+        int firstId;
+        synchronized (this){
+            int total=0;
+            for(String[] fresh:added){
+                total+=fresh.length;
+            }
+            firstId=keyCount;
+            if(keyCount+total>keys.length){
+                keys=Arrays.copyOf(keys,Math.max(keys.length * 2,keyCount+total));
+            }
+            for(String[] fresh:added){
+                System.arraycopy(fresh,0,keys,keyCount,fresh.length);
+                keyCount+=fresh.length;
+            }
+        }
+
+        List<ForkJoinTask<Map<String, IntList>>> posting=new ArrayList<>(ranges);
+        int id=firstId;
+        for(String[] fresh:added){
+            int first=id;
+            posting.add(ForkJoinPool.commonPool().submit(()->{
+                Map<String, IntList> postings=new HashMap<>();
+                for(int i=0;i<fresh.length;i++){
+                    for(String trigram:new LinkedHashSet<>(trigrams(fresh[i]))){
+                        postings.computeIfAbsent(trigram,t->new IntList()).add(first+i);
+                    }
+                }
+                return postings;
+            }));
+            id+=fresh.length;
+        }
+        for(ForkJoinTask<Map<String, IntList>> task:posting){
+            for(Map.Entry<String, IntList> entry:task.join().entrySet()){
+                trigrams.computeIfAbsent(entry.getKey(),t->new IntList()).addAll(entry.getValue());
+            }
+        }
+    }
+
+    public int size(){
+        return titles.size();
+    }
+
+    public List<T> prefix(String query, int limit){
+        //titles starting with query, in alphabetical order
+        String prefix=normalize(query);
+        List<T> result=new ArrayList<>();
+        for(Map.Entry<String, Object[]> entry:titles.tailMap(prefix).entrySet()){
+            if(result.size()>=limit || !entry.getKey().startsWith(prefix)){
+                break;
+            }
+            addValues(result,entry.getValue(),limit);
+        }
+        return result;
+    }
+
+    public int count(String query, int max){
+        //how many values prefix would return, counting no further than max
+        String prefix=normalize(query);
+        int count=0;
+        for(Map.Entry<String, Object[]> entry:titles.tailMap(prefix).entrySet()){
+            if(count>=max || !entry.getKey().startsWith(prefix)){
+                break;
+            }
+            count+=entry.getValue().length;
+        }
+        return Math.min(count,max);
+    }
+
+    public List<T> fuzzy(String query, int limit){
+        //Titles within maxEdits(query) edits of the whole query, closest first.
+        //An edit changes at most 3 trigrams, so a title within d edits shares at least k-3d of any k
+        //trigrams of the query: only the postings of the 3d+1+EXTRA_POSTINGS rarest ones are read, and only
+        //titles found in enough of them get their edit distance computed.
+        String key=normalize(query);
+        int edits=maxEdits(key);
+        if(edits==0){
+            return Collections.emptyList();
+        }
+        List<String> grams=new ArrayList<>(new LinkedHashSet<>(trigrams(key)));
+        grams.sort(Comparator.comparingInt(gram->{
+            IntList ids=trigrams.get(gram);
+            return ids==null ? 0 : ids.size();
+        }));
+        int[] candidates=new int[0];
+        int read=Math.min(grams.size(),3 * edits+1+EXTRA_POSTINGS);
+        int needed=read-3 * edits;
+        for(String gram:grams.subList(0,read)){
+            IntList ids=trigrams.get(gram);
+            if(ids!=null){
+                int[] posting=ids.toArray();
+                int length=candidates.length;
+                candidates=Arrays.copyOf(candidates,length+posting.length);
+                System.arraycopy(posting,0,candidates,length,posting.length);
+            }
+        }
+        Arrays.sort(candidates);
+        String[] keys=this.keys;
+        List<Match> matches=new ArrayList<>();
+        for(int i=0,run;i<candidates.length;i+=run){
+            run=1;
+            while(i+run<candidates.length && candidates[i+run]==candidates[i]){
+                run++;
+            }
+            if(run<needed){
+                continue;
+            }
+            String candidate=keys[candidates[i]];
+            int distance=distance(key,candidate,edits);
+            if(distance<=edits){
+                matches.add(new Match(candidate,distance));
+            }
+        }
+        matches.sort(Comparator.comparingInt((Match match)->match.distance).thenComparing(match->match.key));
+        List<T> result=new ArrayList<>();
+        for(Match match:matches){
+            if(result.size()>=limit){
+                break;
+            }
+            addValues(result,titles.get(match.key),limit);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addValues(List<T> result, Object[] values, int limit){
+        for(Object value:values){
+            if(result.size()>=limit){
+                return;
+            }
+            result.add((T) value);
+        }
+    }
+
+    static String normalize(String title){
+        return title.trim().replaceAll("\\s+"," ").toLowerCase(Locale.ROOT);
+    }
+
+    static boolean startsWith(String title, String prefix){
+        //normalize(title).startsWith(prefix) for a normalized prefix, without copying the title
+        int at=0;
+        int i=0;
+        while(i<title.length() && Character.isWhitespace(title.charAt(i))){
+            i++;
+        }
+        while(at<prefix.length()){
+            if(i>=title.length()){
+                return false;
+            }
+            char c=title.charAt(i++);
+            if(Character.isWhitespace(c)){
+                while(i<title.length() && Character.isWhitespace(title.charAt(i))){
+                    i++;
+                }
+                //trailing whitespace is trimmed away
+                if(i>=title.length() || prefix.charAt(at)!=' '){
+                    return false;
+                }
+            }else if(Character.toLowerCase(c)!=prefix.charAt(at)){
+                return false;
+            }
+            at++;
+        }
+        return true;
+    }
+
+    static int maxEdits(String key){
+        //short queries would match almost anything with a typo allowed
+        return key.length()<4 ? 0 : key.length()<7 ? 1 : 2;
+    }
+
+    private static List<String> trigrams(String key){
+        //padded so a title of length n has n trigrams and its first and last letters count
+        String padded="\u0002"+key+"\u0003";
+        List<String> grams=new ArrayList<>(key.length());
+        for(int i=0;i+3<=padded.length();i++){
+            grams.add(padded.substring(i,i+3));
+        }
+        return grams;
+    }
+
+    static int distance(String a, String b, int bound){
+        //Levenshtein distance, or bound+1 as soon as it must exceed bound; only the diagonal band is filled
+        if(Math.abs(a.length()-b.length())>bound){
+            return bound+1;
+        }
+        int[] previous=new int[b.length()+1];
+        int[] current=new int[b.length()+1];
+        for(int j=0;j<=b.length();j++){
+            previous[j]=j;
+        }
+        for(int i=1;i<=a.length();i++){
+            int from=Math.max(1,i-bound);
+            int to=Math.min(b.length(),i+bound);
+            current[0]=i;
+            if(from>1){
+                current[from-1]=bound+1;
+            }
+            int best=from>1 ? bound+1 : i;
+            for(int j=from;j<=to;j++){
+                int cost=a.charAt(i-1)==b.charAt(j-1) ? 0 : 1;
+                int value=previous[j-1]+cost;
+                value=Math.min(value,current[j-1]+1);
+                if(j<i+bound){
+                    value=Math.min(value,previous[j]+1);
+                }
+                current[j]=value;
+                best=Math.min(best,value);
+            }
+            if(to<b.length()){
+                current[to+1]=bound+1;
+            }
+            if(best>bound){
+                return bound+1;
+            }
+            int[] swap=previous;
+            previous=current;
+            current=swap;
+        }
+        return Math.min(previous[b.length()],bound+1);
+    }
+
+    private static class Match {
+        private final String key;
+        private final int distance;
+
+        private Match(String key, int distance){
+            this.key = key;
+            this.distance = distance;
+        }
+    }
+
+    private static class IntList {
+        //append-only ids; readers copy the filled prefix
+        private int[] values=new int[4];
+        private int size;
+
+        private synchronized void add(int value){
+            if(size==values.length){
+                values=Arrays.copyOf(values,size * 2);
+            }
+            values[size++]=value;
+        }
+
+        private synchronized void addAll(IntList other){
+            int[] added=other.toArray();
+            if(size+added.length>values.length){
+                values=Arrays.copyOf(values,Math.max(values.length * 2,size+added.length));
+            }
+            System.arraycopy(added,0,values,size,added.length);
+            size+=added.length;
+        }
+
+        private synchronized int size(){
+            return size;
+        }
+
+        private synchronized int[] toArray(){
+            return Arrays.copyOf(values,size);
+        }
+    }
+}
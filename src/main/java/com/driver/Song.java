@@ -1,9 +1,14 @@
 package com.driver;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 public class Song {
+    private static final AtomicIntegerFieldUpdater<Song> LIKES = AtomicIntegerFieldUpdater.newUpdater(Song.class, "likes");
+
     private String title;
     private int length;
-    private int likes;
+    private volatile int likes;
+    private int id;
 
     public Song(){
 
@@ -37,4 +42,20 @@ public class Song {
     public void setLikes(int likes) {
         this.likes = likes;
     }
+
+    public int incrementLikes() {
+        return LIKES.incrementAndGet(this);
+    }
+
+    public int addLikes(int likes) {
+        return LIKES.addAndGet(this, likes);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
 }
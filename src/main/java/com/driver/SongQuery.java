@@ -0,0 +1,82 @@
+package com.driver;
+
+public class SongQuery {
+    //Body of /add-playlist-on-query: every field set is a predicate the songs must all match, see SongQueryPlanner.
+    //orderBy is "likes" (most liked first) or empty for catalog order; limit caps the number of songs.
+    private Integer minLength;
+    private Integer maxLength;
+    private String artist;
+    private String album;
+    private Integer minLikes;
+    private String titlePrefix;
+    private String orderBy;
+    private Integer limit;
+
+    public SongQuery(){
+
+    }
+
+    public Integer getMinLength() {
+        return minLength;
+    }
+
+    public void setMinLength(Integer minLength) {
+        this.minLength = minLength;
+    }
+
+    public Integer getMaxLength() {
+        return maxLength;
+    }
+
+    public void setMaxLength(Integer maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public void setArtist(String artist) {
+        this.artist = artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public void setAlbum(String album) {
+        this.album = album;
+    }
+
+    public Integer getMinLikes() {
+        return minLikes;
+    }
+
+    public void setMinLikes(Integer minLikes) {
+        this.minLikes = minLikes;
+    }
+
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    public void setTitlePrefix(String titlePrefix) {
+        this.titlePrefix = titlePrefix;
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public void setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,310 @@
+package com.driver;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class SongQueryPlanner {
+    //Finds the songs of a SongQuery. Every predicate with an index (album, artist, length range, title prefix)
+    //gets a size estimate, exact or counted up to the best so far, and the smallest one produces the candidates
+    //that the other predicates filter. Queries ordered by likes with a limit, or filtering on minLikes, first
+    //walk the song leaderboard, which usually stops after a few ranks, and give up on it once they've visited
+    //as many songs as the best index would return. Queries without an indexed predicate scan the catalog.
+    //Candidates and scans are filtered in partitions on the fork-join pool; with a limit, each partition keeps
+    //only its limit best songs in a bounded heap, so a top-K over the whole catalog stays small.
+
+    public enum Plan {
+        ALBUM, ARTIST, LENGTH, TITLE_PREFIX, LEADERBOARD, SCAN;
+
+        private final Counter counter;
+
+        Plan(){
+            this.counter = Metrics.counter("spotify.query.plans","plan",name().toLowerCase());
+        }
+    }
+
+    //partitions this small are filtered in place
+    private static final int SPLIT_BELOW = 8192;
+    private static final Comparator<Match> BY_LIKES = Comparator.comparingInt((Match m)->-m.likes).thenComparingInt(m->m.song.getId());
+    private static final Comparator<Match> BY_ID = Comparator.comparingInt(m->m.song.getId());
+
+    private final SpotifyRepository repository;
+
+    public SongQueryPlanner(SpotifyRepository repository){
+        this.repository = repository;
+    }
+
+    public List<Song> run(SongQuery query) throws Exception {
+        //the plan picked is counted in spotify.query.plans
+        boolean byLikes=false;
+        if(query.getOrderBy()!=null && !query.getOrderBy().isEmpty()){
+            if(!query.getOrderBy().equalsIgnoreCase("likes")){
+                throw new Exception("Unknown order, use likes");
+            }
+            byLikes=true;
+        }
+        if(query.getLimit()!=null && query.getLimit()<1){
+            throw new Exception("Limit must be at least 1");
+        }
+        int limit=query.getLimit()==null ? Integer.MAX_VALUE : query.getLimit();
+        Filter filter=new Filter(query);
+
+        //the cheapest index, if any predicate has one
+        Plan best=null;
+        int estimate=Integer.MAX_VALUE;
+        if(query.getAlbum()!=null){
+            best=Plan.ALBUM;
+            estimate=filter.album==null ? 0 : repository.albumSongs.size(filter.album.getId());
+        }
+        if(query.getArtist()!=null && estimate>0){
+            int songs=0;
+            if(filter.artist!=null){
+                for(int album:repository.artistAlbums.get(filter.artist.getId())){
+                    songs+=repository.albumSongs.size(album);
+                }
+            }
+            if(songs<estimate){
+                best=Plan.ARTIST;
+                estimate=songs;
+            }
+        }
+        if((query.getMinLength()!=null || query.getMaxLength()!=null) && estimate>0){
+            int songs=0;
+            for(List<Song> bucket:lengthBuckets(query)){
+                songs+=bucket.size();
+            }
+            if(songs<estimate){
+                best=Plan.LENGTH;
+                estimate=songs;
+            }
+        }
+        if(filter.prefix!=null && estimate>0){
+            int songs=repository.songSearch.count(filter.prefix,estimate);
+            if(songs<estimate){
+                best=Plan.TITLE_PREFIX;
+                estimate=songs;
+            }
+        }
+
+        boolean leaderboard=query.getMinLikes()!=null ? byLikes || limit==Integer.MAX_VALUE : byLikes && limit<Integer.MAX_VALUE;
+        if(leaderboard && (best==null || estimate>limit)){
+            List<Song> ranked=repository.songLeaderboard.top(limit,filter.minLikes,filter::test,best==null ? Integer.MAX_VALUE : estimate);
+            if(ranked!=null){
+                Plan.LEADERBOARD.counter.increment();
+                if(!byLikes){
+                    ranked.sort(Comparator.comparingInt(Song::getId));
+                }
+                return ranked;
+            }
+        }
+
+        Matches matches;
+        if(best==null){
+            Plan.SCAN.counter.increment();
+            matches=ForkJoinPool.commonPool().invoke(new Filtering(null,0,repository.songs.size(),filter,byLikes,limit));
+        }else{
+            best.counter.increment();
+            Song[] candidates=candidates(best,filter,query);
+            matches=ForkJoinPool.commonPool().invoke(new Filtering(candidates,0,candidates.length,filter,byLikes,limit));
+        }
+        return matches.songs();
+    }
+
+    private Collection<List<Song>> lengthBuckets(SongQuery query){
+        int min=query.getMinLength()==null ? Integer.MIN_VALUE : query.getMinLength();
+        int max=query.getMaxLength()==null ? Integer.MAX_VALUE : query.getMaxLength();
+        if(min>max){
+            return Collections.emptyList();
+        }
+        return repository.songLengthIndex.subMap(min,true,max,true).values();
+    }
+
+    private Song[] candidates(Plan plan, Filter filter, SongQuery query){
+        List<Song> songs=new ArrayList<>();
+        switch(plan){
+            case ALBUM:
+                if(filter.album!=null){
+                    addSongs(songs,repository.albumSongs.get(filter.album.getId()));
+                }
+                break;
+            case ARTIST:
+                if(filter.artist==null){
+                    break;
+                }
+                for(int album:repository.artistAlbums.get(filter.artist.getId())){
+                    addSongs(songs,repository.albumSongs.get(album));
+                }
+                break;
+            case LENGTH:
+                for(List<Song> bucket:lengthBuckets(query)){
+                    songs.addAll(bucket);
+                }
+                break;
+            default:
+                songs.addAll(repository.songSearch.prefix(filter.prefix,Integer.MAX_VALUE));
+        }
+        return songs.toArray(new Song[0]);
+    }
+
+    private void addSongs(List<Song> songs, int[] ids){
+        for(int id:ids){
+            songs.add(repository.songs.get(id));
+        }
+    }
+
+    private class Filter {
+        //every predicate of the query, checked against each candidate whichever index produced it
+        private final Integer minLength;
+        private final Integer maxLength;
+        private final Album album;
+        private final Artist artist;
+        private final int minLikes;
+        private final String prefix;
+        private final boolean albumMissing;
+        private final boolean artistMissing;
+
+        private Filter(SongQuery query){
+            this.minLength = query.getMinLength();
+            this.maxLength = query.getMaxLength();
+            this.album = query.getAlbum()==null ? null : repository.albumIndex.get(query.getAlbum());
+            this.artist = query.getArtist()==null ? null : repository.artistIndex.get(query.getArtist());
+            this.albumMissing = query.getAlbum()!=null && album==null;
+            this.artistMissing = query.getArtist()!=null && artist==null;
+            this.minLikes = query.getMinLikes()==null ? Integer.MIN_VALUE : query.getMinLikes();
+            this.prefix = query.getTitlePrefix()==null ? null : SearchIndex.normalize(query.getTitlePrefix());
+        }
+
+        private boolean test(Song song){
+            if(albumMissing || artistMissing){
+                return false;
+            }
+            if(minLength!=null && song.getLength()<minLength || maxLength!=null && song.getLength()>maxLength){
+                return false;
+            }
+            if(song.getLikes()<minLikes){
+                return false;
+            }
+            if(album!=null || artist!=null){
+                Album songAlbum=repository.songAlbumMap.get(song);
+                if(album!=null && songAlbum!=album || artist!=null && repository.albumArtistMap.get(songAlbum)!=artist){
+                    return false;
+                }
+            }
+            return prefix==null || SearchIndex.startsWith(song.getTitle(),prefix);
+        }
+    }
+
+    private class Filtering extends RecursiveTask<Matches> {
+        //filters candidates[from, to), or the catalog's songs in that id range when candidates is null
+        private final Song[] candidates;
+        private final int from;
+        private final int to;
+        private final Filter filter;
+        private final boolean byLikes;
+        private final int limit;
+
+        private Filtering(Song[] candidates, int from, int to, Filter filter, boolean byLikes, int limit){
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.filter = filter;
+            this.byLikes = byLikes;
+            this.limit = limit;
+        }
+
+        @Override
+        protected Matches compute(){
+            if(to-from<=SPLIT_BELOW){
+                //a catalog partition is copied out under the list's lock once, not read song by song; subList and
+                //toArray must share that lock, an addSong between them fails the sublist's modification check
+                Song[] songs=candidates;
+                if(songs==null){
+                    synchronized (repository.songs){
+                        songs=repository.songs.subList(from,to).toArray(new Song[0]);
+                    }
+                }
+                int start=candidates!=null ? from : 0;
+                int end=candidates!=null ? to : songs.length;
+                Matches matches=new Matches(byLikes,limit);
+                for(int i=start;i<end;i++){
+                    if(filter.test(songs[i])){
+                        matches.add(songs[i]);
+                    }
+                }
+                return matches;
+            }
+            int middle=(from+to) >>> 1;
+            Filtering right=new Filtering(candidates,middle,to,filter,byLikes,limit);
+            right.fork();
+            Matches left=new Filtering(candidates,from,middle,filter,byLikes,limit).compute();
+            return left.merge(right.join());
+        }
+    }
+
+    private static final class Matches {
+        //the songs found so far; with a limit only the limit best, worst on top of the heap
+        private final Comparator<Match> order;
+        private final int limit;
+        private final PriorityQueue<Match> heap;
+        private final List<Match> all;
+
+        private Matches(boolean byLikes, int limit){
+            this.order = byLikes ? BY_LIKES : BY_ID;
+            this.limit = limit;
+            this.heap = limit<Integer.MAX_VALUE ? new PriorityQueue<>(order.reversed()) : null;
+            this.all = heap==null ? new ArrayList<>() : null;
+        }
+
+        private void add(Song song){
+            add(new Match(song,song.getLikes()));
+        }
+
+        private void add(Match match){
+            if(heap==null){
+                all.add(match);
+                return;
+            }
+            if(heap.size()<limit){
+                heap.add(match);
+            }else if(order.compare(match,heap.peek())<0){
+                heap.poll();
+                heap.add(match);
+            }
+        }
+
+        private Matches merge(Matches other){
+            if(heap==null){
+                all.addAll(other.all);
+            }else{
+                for(Match match:other.heap){
+                    add(match);
+                }
+            }
+            return this;
+        }
+
+        private List<Song> songs(){
+            List<Match> matches=heap==null ? all : new ArrayList<>(heap);
+            matches.sort(order);
+            List<Song> songs=new ArrayList<>(matches.size());
+            for(Match match:matches){
+                songs.add(match.song);
+            }
+            return songs;
+        }
+    }
+
+    private static final class Match {
+        //likes as read once, so the order can't change while sorting
+        private final Song song;
+        private final int likes;
+
+        private Match(Song song, int likes){
+            this.song = song;
+            this.likes = likes;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.driver;
 
+import java.io.InputStream;
 import java.util.*;
 
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("spotify")
@@ -11,6 +15,11 @@ public class SpotifyController {
     //Autowire will not work in this case, no need to change this and add autowire
     SpotifyService spotifyService = new SpotifyService();
 
+    public SpotifyController(){
+        //this service, not the Spring bean, serves the requests, so its repository is the one to watch
+        SpotifyMetrics.registerGauges(spotifyService.spotifyRepository);
+    }
+
     @PostMapping("/add-user")
     public String createUser(@RequestParam(name = "name") String name, String mobile){
         //create the user with given name and number
@@ -41,6 +50,26 @@ public class SpotifyController {
         return "Success";
     }
 
+    @PostMapping("/add-users")
+    public BatchResult createUsers(InputStream body, @RequestHeader(name = "Content-Type", required = false) String contentType) throws Exception{
+        //Bulk version of add-user: NDJSON objects or CSV rows with name and mobile
+        //Bad rows are reported in the result, the other rows are still created
+        return spotifyService.createUsers(body, contentType);
+    }
+
+    @PostMapping("/add-albums")
+    public BatchResult createAlbums(InputStream body, @RequestHeader(name = "Content-Type", required = false) String contentType) throws Exception{
+        //Bulk version of add-album: NDJSON objects or CSV rows with title and artistName
+        return spotifyService.createAlbums(body, contentType);
+    }
+
+    @PostMapping("/add-songs")
+    public BatchResult createSongs(InputStream body, @RequestHeader(name = "Content-Type", required = false) String contentType) throws Exception{
+        //Bulk version of add-song: NDJSON objects or CSV rows with title, albumName and length
+        //Rows whose album does not exist are reported as "Album does not exist"
+        return spotifyService.createSongs(body, contentType);
+    }
+
     @PostMapping("/add-playlist-on-length")
     public String createPlaylistOnLength(String mobile, String title, int length) throws Exception{
         //Create a playlist with given title and add all songs having the given length in the database to that playlist
@@ -50,6 +79,15 @@ public class SpotifyController {
         return "Success";
     }
 
+    @PostMapping("/add-playlist-on-length-range")
+    public String createPlaylistOnLengthRange(String mobile, String title, int minLength, int maxLength) throws Exception{
+        //Create a playlist with given title and add all songs whose length is between minLength and maxLength (inclusive)
+        //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
+        //If the user does not exist, throw "User does not exist" exception
+        Playlist playlist=spotifyService.createPlaylistOnLengthRange(mobile, title, minLength, maxLength);
+        return "Success";
+    }
+
     @PostMapping("/add-playlist-on-name")
     public String createPlaylistOnName(String mobile, String title, List<String> songTitles) throws Exception{
         //Create a playlist with given title and add all songs having the given titles in the database to that playlist
@@ -59,6 +97,16 @@ public class SpotifyController {
         return "Success";
     }
 
+    @PostMapping("/add-playlist-on-query")
+    public String createPlaylistOnQuery(String mobile, String title, @RequestBody SongQuery query) throws Exception{
+        //Create a playlist with given title and add the songs matching every field set in the JSON body: minLength,
+        //maxLength, artist, album, minLikes, titlePrefix, orderBy ("likes" for most liked first) and limit
+        //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
+        //If the user does not exist, throw "User does not exist" exception
+        Playlist playlist=spotifyService.createPlaylistOnQuery(mobile, title, query);
+        return "Success";
+    }
+
     @PutMapping("/find-playlist")
     public String findPlaylist(String mobile, String playlistTitle) throws Exception{
         //Find the playlist with given title and add user as listener of that playlist and update user accordingly
@@ -70,6 +118,20 @@ public class SpotifyController {
         return "Success";
     }
 
+    @PutMapping("/join-playlist")
+    public BatchResult joinPlaylist(String playlistTitle, InputStream body, @RequestHeader(name = "Content-Type", required = false) String contentType) throws Exception{
+        //Bulk version of find-playlist: NDJSON objects or CSV rows with the mobile of each user joining the playlist
+        //Users who already listen to it are counted as joined, unknown users and playlists are reported per row
+        return spotifyService.joinPlaylist(playlistTitle, body, contentType);
+    }
+
+    @GetMapping("/playlist-listener-count")
+    public int playlistListenerCount(String title) throws Exception{
+        //Return how many users listen to the playlist, its creator included
+        //If the playlist does not exists, throw "Playlist does not exist" exception
+        return spotifyService.playlistListenerCount(title);
+    }
+
     @PutMapping("/like-song")
     public String likeSong(String mobile, String songTitle) throws Exception{
         //The user likes the given song. The corresponding artist of the song gets auto-liked
@@ -93,4 +155,126 @@ public class SpotifyController {
         //return the song title with maximum likes
         return spotifyService.mostPopularSong();
     }
+
+    @GetMapping("/popular-artists")
+    public List<String> mostPopularArtists(@RequestParam(name = "k", defaultValue = "10") int k){
+        //Return the names of the k artists with the most likes, most liked first; k is cut to 1000, or to
+        //spotify.view.top-k if that is larger
+        return spotifyService.mostPopularArtists(k);
+    }
+
+    @GetMapping("/popular-songs")
+    public List<String> mostPopularSongs(@RequestParam(name = "k", defaultValue = "10") int k){
+        //Return the titles of the k songs with the most likes, most liked first
+        return spotifyService.mostPopularSongs(k);
+    }
+
+    @GetMapping("/trending-songs")
+    public List<String> trendingSongs(@RequestParam(name = "window", required = false) String window,
+                                      @RequestParam(name = "k", defaultValue = "10") int k) throws Exception {
+        //Return the titles of the k songs liked most over the recent window (one of spotify.trending.windows),
+        //as of the last refresh
+        return spotifyService.trendingSongs(window, k);
+    }
+
+    @GetMapping("/trending-artists")
+    public List<String> trendingArtists(@RequestParam(name = "window", required = false) String window,
+                                        @RequestParam(name = "k", defaultValue = "10") int k) throws Exception {
+        return spotifyService.trendingArtists(window, k);
+    }
+
+    @GetMapping("/recommend")
+    public List<String> recommend(@RequestParam(name = "mobile") String mobile,
+                                  @RequestParam(name = "k", defaultValue = "10") int k) throws Exception {
+        //Return the titles of up to k songs liked by users who liked what this user recently liked
+        return spotifyService.recommend(mobile, k);
+    }
+
+    @GetMapping("/similar-songs")
+    public List<String> similarSongs(@RequestParam(name = "title") String title,
+                                     @RequestParam(name = "k", defaultValue = "10") int k) throws Exception {
+        //Return the titles of up to k songs most often liked together with this one
+        return spotifyService.similarSongs(title, k);
+    }
+
+    @GetMapping("/stats")
+    public ReadView catalogStats(){
+        //Return the catalog counts and leaderboard tops as of the latest published version
+        return spotifyService.catalogStats();
+    }
+
+    @GetMapping("/search")
+    public List<SearchHit> search(@RequestParam(name = "q") String q, @RequestParam(name = "type", required = false) String type,
+                                  @RequestParam(name = "limit", defaultValue = "10") int limit) throws Exception{
+        //Find songs, albums and artists whose title starts with q, then ones whose title is q with a typo or two
+        //type restricts the search to song, album or artist
+        return spotifyService.search(q, type, limit);
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(){
+        //Stream a compressed binary dump of the whole repository, see SpotifyDump
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(spotifyService.export());
+    }
+
+    @PutMapping("/import")
+    public String importDump(InputStream body) throws Exception{
+        //Load a dump made by /export into this node, whose repository must still be empty
+        spotifyService.importDump(body);
+        return "Success";
+    }
+
+    //Listings: one page per call, pass the returned "next" as cursor to get the following page
+
+    @GetMapping("/playlist-songs")
+    public ResponseEntity<StreamingResponseBody> playlistSongs(String title, @RequestParam(name = "cursor", required = false) String cursor,
+                                                               @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Songs of the playlist in the order they were added
+        //If the playlist does not exist, throw "Playlist does not exist" exception
+        return page(spotifyService.playlistSongs(title, cursor, limit));
+    }
+
+    @GetMapping("/playlist-listeners")
+    public ResponseEntity<StreamingResponseBody> playlistListeners(String title, @RequestParam(name = "cursor", required = false) String cursor,
+                                                                   @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Listeners of the playlist, creator first
+        //If the playlist does not exist, throw "Playlist does not exist" exception
+        return page(spotifyService.playlistListeners(title, cursor, limit));
+    }
+
+    @GetMapping("/album-songs")
+    public ResponseEntity<StreamingResponseBody> albumSongs(String title, @RequestParam(name = "cursor", required = false) String cursor,
+                                                            @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Songs of the album
+        //If the album does not exist, throw "Album does not exist" exception
+        return page(spotifyService.albumSongs(title, cursor, limit));
+    }
+
+    @GetMapping("/artist-albums")
+    public ResponseEntity<StreamingResponseBody> artistAlbums(String name, @RequestParam(name = "cursor", required = false) String cursor,
+                                                              @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Albums of the artist
+        //If the artist does not exist, throw "Artist does not exist" exception
+        return page(spotifyService.artistAlbums(name, cursor, limit));
+    }
+
+    @GetMapping("/user-playlists")
+    public ResponseEntity<StreamingResponseBody> userPlaylists(String mobile, @RequestParam(name = "cursor", required = false) String cursor,
+                                                               @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Playlists the user created or listens to
+        //If the user does not exist, throw "User does not exist" exception
+        return page(spotifyService.userPlaylists(mobile, cursor, limit));
+    }
+
+    @GetMapping("/created-playlists")
+    public ResponseEntity<StreamingResponseBody> createdPlaylists(String mobile, @RequestParam(name = "cursor", required = false) String cursor,
+                                                                  @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Playlists the user created, oldest first
+        //If the user does not exist, throw "User does not exist" exception
+        return page(spotifyService.createdPlaylists(mobile, cursor, limit));
+    }
+
+    private static ResponseEntity<StreamingResponseBody> page(StreamingResponseBody body){
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 }
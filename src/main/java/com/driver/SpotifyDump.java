@@ -0,0 +1,644 @@
+package com.driver;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class SpotifyDump {
+    //Export format for copying a whole repository to another node. Unlike SpotifySnapshot it is written while
+    //writes go on and belongs to no journal. Sections come in creation order: users, artists, albums, songs,
+    //playlists (songs and listeners, creator first) and likes; entities refer to each other by position, and
+    //the creator and user playlists are rebuilt from the playlist rows on load. Since version 2 the recommender's
+    //pair count sketch, co-occurrence rows and users' recent likes follow, as in SpotifySnapshot.
+    //Layout: magic, version, then blocks of at most BLOCK_ROWS rows of one section, each deflated on its own
+    //(section, rows, raw length, compressed length, bytes), then an END section byte. Independent blocks let
+    //the loader inflate and parse them on the fork-join pool while it applies earlier ones in order.
+    //A dump may come from another node, so block headers are checked before their sizes are allocated.
+
+    private static final int MAGIC = 0x53505444;
+    private static final int VERSION = 2;
+
+    private static final byte END = 0;
+    private static final byte USERS = 1;
+    private static final byte ARTISTS = 2;
+    private static final byte ALBUMS = 3;
+    private static final byte SONGS = 4;
+    private static final byte PLAYLISTS = 5;
+    private static final byte LIKES = 6;
+    private static final byte SKETCH = 7;
+    private static final byte PAIRS = 8;
+    private static final byte RECENT = 9;
+
+    private static final int BLOCK_ROWS = 16384;
+    private static final int BLOCK_BYTES = 1 << 20;
+    //a block only outgrows BLOCK_BYTES by its last row; blocks past this are refused when written and read
+    private static final int MAX_BLOCK_BYTES = 1 << 28;
+
+    private SpotifyDump(){
+
+    }
+
+    public static void write(SpotifyRepository repository, WritableByteChannel channel) throws IOException {
+        //Each list is cut at its size when its section starts, taken in reverse creation order (playlists
+        //first, users last) so whatever a written entity refers to is written too. Entities still being
+        //created are waited for; listeners and likers that joined after the users were read are left out.
+        int playlistCount=repository.playlists.size();
+        int songCount=repository.songs.size();
+        int albumCount=repository.albums.size();
+        int artistCount=repository.artists.size();
+        List<User> users=repository.allUsers();
+
+        int maxId=-1;
+        for(User user:users){
+            maxId=Math.max(maxId,user.getId());
+        }
+        int[] userPositions=new int[maxId+1];
+        Arrays.fill(userPositions,-1);
+
+        Blocks out=new Blocks(channel);
+        out.header();
+        for(int i=0;i<users.size();i++){
+            User user=users.get(i);
+            userPositions[user.getId()]=i;
+            DataOutputStream row=out.row(USERS);
+            SpotifyJournal.writeString(row,user.getName());
+            SpotifyJournal.writeString(row,user.getMobile());
+        }
+        for(int i=0;i<artistCount;i++){
+            SpotifyJournal.writeString(out.row(ARTISTS),repository.artists.get(i).getName());
+        }
+        for(int i=0;i<albumCount;i++){
+            Album album=repository.albums.get(i);
+            Artist artist=await(()->repository.albumArtistMap.get(album));
+            DataOutputStream row=out.row(ALBUMS);
+            SpotifyJournal.writeString(row,album.getTitle());
+            row.writeLong(album.getReleaseDate()==null ? -1 : album.getReleaseDate().getTime());
+            row.writeInt(artist.getId());
+        }
+        for(int i=0;i<songCount;i++){
+            Song song=repository.songs.get(i);
+            Album album=await(()->repository.songAlbumMap.get(song));
+            DataOutputStream row=out.row(SONGS);
+            SpotifyJournal.writeString(row,song.getTitle());
+            row.writeInt(song.getLength());
+            row.writeInt(album.getId());
+        }
+        for(int i=0;i<playlistCount;i++){
+            Playlist playlist=repository.playlists.get(i);
+            //the creator is recorded last, once the playlist's rows exist
+            await(()->repository.playlistCreatorMap.get(playlist));
+            DataOutputStream row=out.row(PLAYLISTS);
+            SpotifyJournal.writeString(row,playlist.getTitle());
+            writeIds(row,repository.playlistSongs.get(playlist.getId()),null);
+            writeIds(row,repository.playlistListeners.get(playlist.getId()),userPositions);
+        }
+        for(int i=0;i<songCount;i++){
+            int[] likers=repository.songLikes.get(i);
+            if(likers.length==0){
+                continue;
+            }
+            DataOutputStream row=out.row(LIKES);
+            row.writeInt(i);
+            writeIds(row,likers,userPositions);
+        }
+        //the recommender keeps changing while this runs, songs and users past the cut are left out of it
+        Recommender recommender=repository.recommender;
+        int sketchSize=recommender.pairCountSize();
+        for(int from=0;from<sketchSize;from+=SpotifySnapshot.SKETCH_CHUNK){
+            int[] counts=recommender.pairCounts(from,Math.min(from+SpotifySnapshot.SKETCH_CHUNK,sketchSize));
+            if(SpotifySnapshot.isZero(counts)){
+                continue;
+            }
+            DataOutputStream row=out.row(SKETCH);
+            row.writeInt(sketchSize);
+            row.writeInt(from);
+            writeIds(row,counts,null);
+        }
+        for(Song song:recommender.rowSongs()){
+            if(song.getId()>=songCount){
+                continue;
+            }
+            int[][] entries=recommender.rowEntries(song);
+            int kept=0;
+            for(int i=0;i<entries[0].length;i++){
+                if(entries[0][i]<songCount){
+                    entries[0][kept]=entries[0][i];
+                    entries[1][kept]=entries[1][i];
+                    kept++;
+                }
+            }
+            DataOutputStream row=out.row(PAIRS);
+            row.writeInt(song.getId());
+            writeIds(row,Arrays.copyOf(entries[0],kept),null);
+            writeIds(row,Arrays.copyOf(entries[1],kept),null);
+        }
+        if(recommender.getHistory()>0){
+            for(int i=0;i<users.size();i++){
+                User user=users.get(i);
+                int[] recent=repository.shardOf(user).recentLikes(user,recommender.getHistory());
+                int kept=0;
+                for(int songId:recent){
+                    if(songId<songCount){
+                        recent[kept++]=songId;
+                    }
+                }
+                if(kept==0){
+                    continue;
+                }
+                DataOutputStream row=out.row(RECENT);
+                row.writeInt(i);
+                writeIds(row,Arrays.copyOf(recent,kept),null);
+            }
+        }
+        out.finish();
+    }
+
+    static void read(ReadableByteChannel channel, SpotifyRepository repository) throws IOException {
+        //Loads into an empty repository with ranking and search indexing deferred, see SpotifyRepository.load.
+        //Up to twice the pool's parallelism of blocks are being inflated while the oldest one is applied.
+        ByteBuffer header=ByteBuffer.allocate(8);
+        readFully(channel,header);
+        if(header.getInt()!=MAGIC){
+            throw new IOException("Not a repository dump");
+        }
+        int version=header.getInt();
+        if(version<1 || version>VERSION){
+            throw new IOException("Unsupported dump version "+version);
+        }
+
+        int inFlight=Math.max(2,ForkJoinPool.commonPool().getParallelism() * 2);
+        ArrayDeque<CompletableFuture<Block>> pending=new ArrayDeque<>();
+        Loader loader=new Loader(repository);
+        ByteBuffer sectionByte=ByteBuffer.allocate(1);
+        ByteBuffer blockHeader=ByteBuffer.allocate(12);
+        while(true){
+            sectionByte.clear();
+            readFully(channel,sectionByte);
+            byte section=sectionByte.get();
+            if(section==END){
+                break;
+            }
+            blockHeader.clear();
+            readFully(channel,blockHeader);
+            int rows=blockHeader.getInt();
+            int rawLength=blockHeader.getInt();
+            int compressedLength=blockHeader.getInt();
+            //deflate grows incompressible input by a few bytes per 16KB and shrinks any input at most 1032 times
+            if(rows<1 || rows>BLOCK_ROWS || rawLength<0 || rawLength>MAX_BLOCK_BYTES || compressedLength<0
+                    || compressedLength>rawLength+(rawLength >> 3)+64 || rawLength>compressedLength*1032L+64){
+                throw new IOException("Corrupt dump");
+            }
+            ByteBuffer compressed=ByteBuffer.allocate(compressedLength);
+            readFully(channel,compressed);
+            pending.add(CompletableFuture.supplyAsync(()->decode(section,rows,rawLength,compressed.array())));
+            if(pending.size()>=inFlight){
+                loader.apply(join(pending.poll()));
+            }
+        }
+        while(!pending.isEmpty()){
+            loader.apply(join(pending.poll()));
+        }
+        //every song and artist is ranked once, with all its likes
+        for(Artist artist:repository.artists){
+            repository.artistLeaderboard.add(artist);
+        }
+        for(Song song:repository.songs){
+            repository.songLeaderboard.add(song);
+        }
+        repository.artistSearch.addAll(new ArrayList<>(repository.artists),Artist::getName);
+        repository.albumSearch.addAll(new ArrayList<>(repository.albums),Album::getTitle);
+        repository.songSearch.addAll(new ArrayList<>(repository.songs),Song::getTitle);
+    }
+
+    private static Block join(CompletableFuture<Block> block) throws IOException {
+        try{
+            return block.join();
+        }catch(RuntimeException e){
+            if(e.getCause() instanceof UncheckedIOException){
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Block decode(byte section, int rows, int rawLength, byte[] compressed){
+        byte[] raw=new byte[rawLength];
+        Inflater inflater=new Inflater();
+        try{
+            inflater.setInput(compressed);
+            int length=0;
+            while(length<rawLength && !inflater.finished()){
+                int read=inflater.inflate(raw,length,rawLength-length);
+                if(read==0 && (inflater.needsInput() || inflater.needsDictionary())){
+                    break;
+                }
+                length+=read;
+            }
+            if(length!=rawLength){
+                throw new UncheckedIOException(new IOException("Truncated dump block"));
+            }
+        }catch(DataFormatException e){
+            throw new UncheckedIOException(new IOException("Corrupt dump block",e));
+        }finally{
+            inflater.end();
+        }
+
+        DataInputStream in=new DataInputStream(new ByteArrayInputStream(raw));
+        Block block=new Block(section,rows);
+        try{
+            for(int i=0;i<rows;i++){
+                switch(section){
+                    case USERS:
+                        block.names[i]=readString(in);
+                        block.others[i]=readString(in);
+                        break;
+                    case ARTISTS:
+                        block.names[i]=readString(in);
+                        break;
+                    case ALBUMS:
+                        block.names[i]=readString(in);
+                        block.longs[i]=in.readLong();
+                        block.ints[i]=in.readInt();
+                        break;
+                    case SONGS:
+                        block.names[i]=readString(in);
+                        block.longs[i]=in.readInt();
+                        block.ints[i]=in.readInt();
+                        break;
+                    case PLAYLISTS:
+                        block.names[i]=readString(in);
+                        block.ids[i]=readIds(in);
+                        block.moreIds[i]=readIds(in);
+                        break;
+                    case LIKES:
+                    case RECENT:
+                        block.ints[i]=in.readInt();
+                        block.ids[i]=readIds(in);
+                        break;
+                    case SKETCH:
+                        block.longs[i]=in.readInt();
+                        block.ints[i]=in.readInt();
+                        block.ids[i]=readIds(in);
+                        break;
+                    case PAIRS:
+                        block.ints[i]=in.readInt();
+                        block.ids[i]=readIds(in);
+                        block.moreIds[i]=readIds(in);
+                        break;
+                    default:
+                        throw new IOException("Unknown dump section "+section);
+                }
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return block;
+    }
+
+    private static <T> T await(Supplier<T> value){
+        //entities are added to their list a few statements before their back-references, this spins for those
+        T result=value.get();
+        while(result==null){
+            Thread.yield();
+            result=value.get();
+        }
+        return result;
+    }
+
+    private static void writeIds(DataOutputStream out, int[] ids, int[] userPositions) throws IOException {
+        //with userPositions, ids are user ids to write as positions, leaving out users not in the dump
+        int count=ids.length;
+        if(userPositions!=null){
+            count=0;
+            for(int i=0;i<ids.length;i++){
+                int position=ids[i]<userPositions.length ? userPositions[ids[i]] : -1;
+                if(position>=0){
+                    ids[count++]=position;
+                }
+            }
+        }
+        out.writeInt(count);
+        for(int i=0;i<count;i++){
+            out.writeInt(ids[i]);
+        }
+    }
+
+    private static int[] readIds(DataInputStream in) throws IOException {
+        //counts and lengths are checked against what is left of the block before anything is allocated
+        int count=in.readInt();
+        if(count<0 || count>in.available() / Integer.BYTES){
+            throw new IOException("Corrupt dump");
+        }
+        int[] ids=new int[count];
+        for(int i=0;i<ids.length;i++){
+            ids[i]=in.readInt();
+        }
+        return ids;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        //as SpotifyJournal.readString
+        int length=in.readInt();
+        if(length<0){
+            return null;
+        }
+        if(length>in.available()){
+            throw new IOException("Corrupt dump");
+        }
+        byte[] bytes=new byte[length];
+        in.readFully(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    private static <T> T at(List<T> list, int position) throws IOException {
+        //an entity by its position in the dump, which must be one already loaded
+        if(position<0 || position>=list.size()){
+            throw new IOException("Corrupt dump");
+        }
+        return list.get(position);
+    }
+
+    private static int[] songIds(SpotifyRepository repository, int[] ids) throws IOException {
+        for(int id:ids){
+            if(id<0 || id>=repository.songs.size()){
+                throw new IOException("Corrupt dump");
+            }
+        }
+        return ids;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer)<0){
+                throw new EOFException("Repository dump ends early");
+            }
+        }
+        buffer.flip();
+    }
+
+    static InputStream open(String source) throws IOException {
+        //source is the base URL of a running node, whose /spotify/export is fetched, or a dump file
+        if(!source.startsWith("http://") && !source.startsWith("https://")){
+            return Files.newInputStream(Paths.get(source));
+        }
+        HttpRequest request=HttpRequest.newBuilder(URI.create(trimSlash(source)+"/spotify/export")).GET().build();
+        try{
+            HttpResponse<InputStream> response=HttpClient.newHttpClient().send(request,HttpResponse.BodyHandlers.ofInputStream());
+            if(response.statusCode()!=200){
+                response.body().close();
+                throw new IOException("Export from "+source+" failed with status "+response.statusCode());
+            }
+            return response.body();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to "+source);
+        }
+    }
+
+    private static String trimSlash(String url){
+        return url.endsWith("/") ? url.substring(0,url.length()-1) : url;
+    }
+
+    public static void main(String[] args) throws Exception {
+        //Copies a dump: java -cp <application classpath> com.driver.SpotifyDump <from> <to>
+        //from is a node's base URL or a dump file; to is a file, or the base URL of an empty node that loads it
+        //through /spotify/import, e.g. a fresh replica of a primary
+        if(args.length!=2){
+            System.err.println("Usage: SpotifyDump <from URL or file> <to URL or file>");
+            System.exit(2);
+        }
+        long start=System.nanoTime();
+        String target=args[1];
+        try(InputStream in=open(args[0])){
+            if(target.startsWith("http://") || target.startsWith("https://")){
+                HttpRequest request=HttpRequest.newBuilder(URI.create(trimSlash(target)+"/spotify/import"))
+                        .header("Content-Type","application/octet-stream")
+                        .PUT(HttpRequest.BodyPublishers.ofInputStream(()->in))
+                        .build();
+                HttpResponse<String> response=HttpClient.newHttpClient().send(request,HttpResponse.BodyHandlers.ofString());
+                if(response.statusCode()!=200){
+                    throw new IOException("Import into "+target+" failed with status "+response.statusCode()+": "+response.body());
+                }
+            }else{
+                try(FileChannel out=FileChannel.open(Paths.get(target),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING)){
+                    out.transferFrom(Channels.newChannel(in),0,Long.MAX_VALUE);
+                }
+            }
+        }
+        System.out.printf("Copied %s to %s in %.1f s%n",args[0],target,(System.nanoTime()-start) / 1e9);
+    }
+
+    private static final class Blocks {
+        //rows of the current block, deflated and written once the block is full or the section changes
+        private final WritableByteChannel channel;
+        private final ByteArrayOutputStream raw;
+        private final DataOutputStream rows;
+        private final Deflater deflater;
+        private byte[] compressed;
+        private byte section;
+        private int count;
+
+        private Blocks(WritableByteChannel channel){
+            this.channel = channel;
+            this.raw = new ByteArrayOutputStream(BLOCK_BYTES + (BLOCK_BYTES >> 2));
+            this.rows = new DataOutputStream(raw);
+            this.deflater = new Deflater(Deflater.BEST_SPEED);
+            this.compressed = new byte[BLOCK_BYTES];
+        }
+
+        private void header() throws IOException {
+            ByteBuffer header=ByteBuffer.allocate(8);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(header);
+        }
+
+        private DataOutputStream row(byte section) throws IOException {
+            if(section!=this.section || count==BLOCK_ROWS || raw.size()>=BLOCK_BYTES){
+                flush();
+                this.section = section;
+            }
+            count++;
+            return rows;
+        }
+
+        private void flush() throws IOException {
+            if(count==0){
+                return;
+            }
+            rows.flush();
+            if(raw.size()>MAX_BLOCK_BYTES){
+                throw new IOException("Dump row of "+raw.size()+" bytes is too large");
+            }
+            byte[] bytes=raw.toByteArray();
+            deflater.reset();
+            deflater.setInput(bytes);
+            deflater.finish();
+            int length=0;
+            while(!deflater.finished()){
+                if(length==compressed.length){
+                    compressed=Arrays.copyOf(compressed,compressed.length * 2);
+                }
+                length+=deflater.deflate(compressed,length,compressed.length-length);
+            }
+            ByteBuffer header=ByteBuffer.allocate(13);
+            header.put(section).putInt(count).putInt(bytes.length).putInt(length).flip();
+            writeFully(header);
+            writeFully(ByteBuffer.wrap(compressed,0,length));
+            raw.reset();
+            count=0;
+        }
+
+        private void finish() throws IOException {
+            flush();
+            deflater.end();
+            writeFully(ByteBuffer.wrap(new byte[]{END}));
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static final class Block {
+        //one block's rows, parsed; which arrays are used depends on the section
+        private final byte section;
+        private final int rows;
+        private final String[] names;
+        private final String[] others;
+        //release dates, song lengths, or sketch sizes
+        private final long[] longs;
+        private final int[] ints;
+        private final int[][] ids;
+        private final int[][] moreIds;
+
+        private Block(byte section, int rows){
+            this.section = section;
+            this.rows = rows;
+            this.names = new String[rows];
+            this.others = section==USERS ? new String[rows] : null;
+            this.longs = section==ALBUMS || section==SONGS || section==SKETCH ? new long[rows] : null;
+            this.ints = section!=USERS && section!=ARTISTS && section!=PLAYLISTS ? new int[rows] : null;
+            this.ids = section==PLAYLISTS || section>=LIKES ? new int[rows][] : null;
+            this.moreIds = section==PLAYLISTS || section==PAIRS ? new int[rows][] : null;
+        }
+    }
+
+    private static final class Loader {
+        //applies parsed blocks in file order through the repository's own add methods
+        private final SpotifyRepository repository;
+        private final List<User> users;
+
+        private Loader(SpotifyRepository repository){
+            this.repository = repository;
+            this.users = new ArrayList<>();
+        }
+
+        private void apply(Block block) throws IOException {
+            //positions are checked as they are resolved, a corrupt one stops the load with an IOException
+            switch(block.section){
+                case USERS:
+                    for(int i=0;i<block.rows;i++){
+                        users.add(repository.addUser(block.names[i],block.others[i]));
+                    }
+                    break;
+                case ARTISTS:
+                    for(int i=0;i<block.rows;i++){
+                        repository.addArtist(block.names[i]);
+                    }
+                    break;
+                case ALBUMS:
+                    for(int i=0;i<block.rows;i++){
+                        long releaseDate=block.longs[i];
+                        repository.addAlbum(block.names[i],at(repository.artists,block.ints[i]),releaseDate<0 ? null : new Date(releaseDate));
+                    }
+                    break;
+                case SONGS:
+                    for(int i=0;i<block.rows;i++){
+                        repository.addSong(block.names[i],(int) block.longs[i],at(repository.albums,block.ints[i]));
+                    }
+                    break;
+                case PLAYLISTS:
+                    for(int i=0;i<block.rows;i++){
+                        List<Song> songs=new ArrayList<>(block.ids[i].length);
+                        for(int id:block.ids[i]){
+                            songs.add(at(repository.songs,id));
+                        }
+                        //the creator comes first and is always written
+                        int[] listeners=block.moreIds[i];
+                        if(listeners.length==0){
+                            throw new IOException("Corrupt dump");
+                        }
+                        User creator=at(users,listeners[0]);
+                        for(int j=1;j<listeners.length;j++){
+                            at(users,listeners[j]);
+                        }
+                        Playlist playlist=repository.createPlaylist(creator,block.names[i],songs);
+                        for(int j=1;j<listeners.length;j++){
+                            repository.addListener(playlist,users.get(listeners[j]));
+                        }
+                    }
+                    break;
+                case SKETCH:
+                    for(int i=0;i<block.rows;i++){
+                        if(block.ints[i]<0 || (long) block.ints[i]+block.ids[i].length>block.longs[i]){
+                            throw new IOException("Corrupt dump");
+                        }
+                        repository.recommender.restorePairCounts((int) block.longs[i],block.ints[i],block.ids[i]);
+                    }
+                    break;
+                case PAIRS:
+                    for(int i=0;i<block.rows;i++){
+                        if(block.ids[i].length!=block.moreIds[i].length){
+                            throw new IOException("Corrupt dump");
+                        }
+                        repository.recommender.restoreRow(at(repository.songs,block.ints[i]),songIds(repository,block.ids[i]),block.moreIds[i]);
+                    }
+                    break;
+                case RECENT:
+                    int history=repository.recommender.getHistory();
+                    for(int i=0;history>0 && i<block.rows;i++){
+                        User user=at(users,block.ints[i]);
+                        repository.shardOf(user).restoreRecentLikes(user,songIds(repository,block.ids[i]),history);
+                    }
+                    break;
+                default:
+                    //the whole block's likes are counted at once, each song and artist is re-ranked once
+                    Map<Song, List<User>> likes=new HashMap<>();
+                    for(int i=0;i<block.rows;i++){
+                        Song song=at(repository.songs,block.ints[i]);
+                        List<User> likers=new ArrayList<>(block.ids[i].length);
+                        for(int position:block.ids[i]){
+                            User user=at(users,position);
+                            if(repository.claimLike(song,user)){
+                                likers.add(user);
+                            }
+                        }
+                        if(!likers.isEmpty()){
+                            likes.put(song,likers);
+                        }
+                    }
+                    repository.applyLikes(likes);
+            }
+        }
+    }
+}
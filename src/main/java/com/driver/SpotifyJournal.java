@@ -0,0 +1,406 @@
+package com.driver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+public class SpotifyJournal implements Closeable {
+    //Append-only log of repository mutations, split into numbered segment files (journal-000001.log, ...).
+    //Each record is [int length][int crc32][byte op][arguments]; a torn record at the end of the last
+    //segment fails its checksum and ends the replay.
+    //A failed write loses the records it was writing, so the first I/O error sticks: every later sync, flush
+    //and roll throws it rather than report records durable that never reached the file.
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpotifyJournal.class);
+
+    public enum FsyncPolicy {
+        //fsync before the mutating call returns; concurrent callers share one fsync (group commit)
+        ALWAYS,
+        //write and fsync from a background thread every fsync interval
+        INTERVAL,
+        //write from a background thread every fsync interval and leave flushing to the OS
+        NEVER
+    }
+
+    public static final byte CREATE_USER = 1;
+    public static final byte CREATE_ARTIST = 2;
+    public static final byte CREATE_ALBUM = 3;
+    public static final byte CREATE_SONG = 4;
+    public static final byte CREATE_PLAYLIST_ON_LENGTH = 5;
+    public static final byte CREATE_PLAYLIST_ON_LENGTH_RANGE = 6;
+    public static final byte CREATE_PLAYLIST_ON_NAME = 7;
+    public static final byte FIND_PLAYLIST = 8;
+    public static final byte LIKE_SONG = 9;
+    public static final byte CREATE_PLAYLIST_ON_SONGS = 10;
+
+    //Argument types per op: S = string, I = int, L = long, N = list of strings, A = int array
+    private static final String[] SCHEMA = {null, "SS", "S", "SSL", "SSI", "SSI", "SSII", "SSN", "SS", "SS", "SSA"};
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d+)\\.log");
+
+    private final Path dir;
+    private final FsyncPolicy policy;
+    private final ReentrantLock lock;
+    private final Object flushLock;
+    private final ScheduledExecutorService flusher;
+
+    //guarded by lock
+    private ByteArrayOutputStream pending;
+    private DataOutputStream pendingOut;
+    private long appendedSeq;
+    private FileChannel channel;
+    private int segment;
+
+    //guarded by flushLock
+    private ByteArrayOutputStream spare;
+    private volatile long durableSeq;
+    private volatile IOException failure;
+
+    private SpotifyJournal(Path dir, int segment, FsyncPolicy policy, long fsyncIntervalMillis) throws IOException {
+        this.dir = dir;
+        this.policy = policy;
+        this.lock = new ReentrantLock();
+        this.flushLock = new Object();
+        this.pending = new ByteArrayOutputStream(1 << 16);
+        this.pendingOut = new DataOutputStream(pending);
+        this.spare = new ByteArrayOutputStream(1 << 16);
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        if(policy==FsyncPolicy.ALWAYS){
+            this.flusher = null;
+        }else{
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread=new Thread(r,"spotify-journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(() -> {
+                try{
+                    flush(policy==FsyncPolicy.INTERVAL);
+                }catch(IOException e){
+                    //the error itself is logged once, the flushes after it fail fast and are only counted
+                    if(e==failure){
+                        LOG.error("Journal flush to {} failed, later writes are refused",dir,e);
+                    }
+                    SpotifyMetrics.Task.JOURNAL_FLUSH.failed();
+                }
+            },fsyncIntervalMillis,fsyncIntervalMillis,TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static SpotifyJournal open(Path dir, int segment, FsyncPolicy policy, long fsyncIntervalMillis) throws IOException {
+        Files.createDirectories(dir);
+        return new SpotifyJournal(dir,segment,policy,fsyncIntervalMillis);
+    }
+
+    public void lock(){
+        //held by the repository around a mutation and its append, so the log order is the order mutations were applied
+        lock.lock();
+    }
+
+    public void unlock(){
+        lock.unlock();
+    }
+
+    public boolean isHeldByCurrentThread(){
+        return lock.isHeldByCurrentThread();
+    }
+
+    public long lastSeq(){
+        //sequence number of the last appended record, call with the lock held
+        return appendedSeq;
+    }
+
+    public long append(byte op, Object... args){
+        //must be called with the lock held; only buffers the record, see sync
+        if(!lock.isHeldByCurrentThread()){
+            throw new IllegalStateException("Journal lock is not held");
+        }
+        try{
+            byte[] payload=encode(op,args);
+            CRC32 crc=new CRC32();
+            crc.update(payload);
+            pendingOut.writeInt(payload.length);
+            pendingOut.writeInt((int) crc.getValue());
+            pendingOut.write(payload);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return ++appendedSeq;
+    }
+
+    public void sync(long seq){
+        //with ALWAYS the caller waits until its record is on disk; the first waiter writes everything buffered so far
+        if(policy!=FsyncPolicy.ALWAYS || durableSeq>=seq){
+            return;
+        }
+        try{
+            synchronized (flushLock){
+                if(durableSeq<seq){
+                    writePending(true);
+                }
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void flush(boolean force) throws IOException {
+        synchronized (flushLock){
+            writePending(force);
+        }
+    }
+
+    public int roll(IntConsumer whileLocked) throws IOException {
+        //closes the current segment, starts the next one and hands its number to whileLocked before any
+        //mutation can reach it; returns the new segment number.
+        //Lock order is always flushLock then lock, the same as flush.
+        synchronized (flushLock){
+            lock.lock();
+            try{
+                writePending(true);
+                channel.close();
+                segment++;
+                channel=openSegment(segment);
+                whileLocked.accept(segment);
+                return segment;
+            }finally{
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writePending(boolean force) throws IOException {
+        //called with flushLock held; swaps the buffers under the append lock and writes outside it
+        if(failure!=null){
+            throw new IOException("Journal failed earlier",failure);
+        }
+        ByteArrayOutputStream batch;
+        long batchSeq;
+        FileChannel target;
+        lock.lock();
+        try{
+            batch=pending;
+            batchSeq=appendedSeq;
+            target=channel;
+            pending=spare;
+            pendingOut=new DataOutputStream(pending);
+        }finally{
+            lock.unlock();
+        }
+        try{
+            if(batch.size()>0){
+                ByteBuffer buffer=ByteBuffer.wrap(batch.toByteArray());
+                while(buffer.hasRemaining()){
+                    target.write(buffer);
+                }
+            }
+            if(force){
+                target.force(false);
+            }
+        }catch(IOException e){
+            failure=e;
+            throw e;
+        }
+        batch.reset();
+        spare=batch;
+        durableSeq=batchSeq;
+    }
+
+    public void deleteSegmentsBefore(int first) throws IOException {
+        for(int old:segments(dir)){
+            if(old<first){
+                Files.deleteIfExists(segmentPath(dir,old));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (flushLock){
+            if(!channel.isOpen()){
+                return;
+            }
+        }
+        if(flusher!=null){
+            flusher.shutdown();
+        }
+        try{
+            flush(true);
+        }finally{
+            channel.close();
+        }
+    }
+
+    public static List<Integer> segments(Path dir) throws IOException {
+        List<Integer> segments=new ArrayList<>();
+        if(!Files.isDirectory(dir)){
+            return segments;
+        }
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(dir,"journal-*.log")){
+            for(Path file:files){
+                Matcher matcher=SEGMENT_NAME.matcher(file.getFileName().toString());
+                if(matcher.matches()){
+                    segments.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    public static long replay(Path dir, int segment, BiConsumer<Byte, Object[]> consumer) throws IOException {
+        //feeds every intact record of the segment to consumer, returns how many were replayed.
+        //A length past the end of the segment is a torn or corrupt record, not an allocation to attempt.
+        long records=0;
+        Path path=segmentPath(dir,segment);
+        long remaining=Files.size(path);
+        try(DataInputStream in=new DataInputStream(new BufferedInputStream(Files.newInputStream(path),1 << 16))){
+            while(true){
+                int length;
+                int checksum;
+                byte[] payload;
+                try{
+                    length=in.readInt();
+                    checksum=in.readInt();
+                    remaining-=8;
+                    if(length<=0 || length>remaining){
+                        break;
+                    }
+                    remaining-=length;
+                    payload=new byte[length];
+                    in.readFully(payload);
+                }catch(EOFException e){
+                    break;
+                }
+                CRC32 crc=new CRC32();
+                crc.update(payload);
+                if((int) crc.getValue()!=checksum){
+                    break;
+                }
+                DataInputStream record=new DataInputStream(new ByteArrayInputStream(payload));
+                byte op=record.readByte();
+                consumer.accept(op,decode(op,record));
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private FileChannel openSegment(int segment) throws IOException {
+        return FileChannel.open(segmentPath(dir,segment),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.APPEND);
+    }
+
+    private static Path segmentPath(Path dir, int segment){
+        return dir.resolve(String.format("journal-%06d.log",segment));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] encode(byte op, Object[] args) throws IOException {
+        String schema=SCHEMA[op];
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream(64);
+        DataOutputStream out=new DataOutputStream(bytes);
+        out.writeByte(op);
+        for(int i=0;i<schema.length();i++){
+            switch(schema.charAt(i)){
+                case 'S':
+                    writeString(out,(String) args[i]);
+                    break;
+                case 'I':
+                    out.writeInt((Integer) args[i]);
+                    break;
+                case 'L':
+                    out.writeLong((Long) args[i]);
+                    break;
+                case 'A':
+                    int[] ints=(int[]) args[i];
+                    out.writeInt(ints.length);
+                    for(int value:ints){
+                        out.writeInt(value);
+                    }
+                    break;
+                default:
+                    List<String> values=(List<String>) args[i];
+                    out.writeInt(values==null ? -1 : values.size());
+                    if(values!=null){
+                        for(String value:values){
+                            writeString(out,value);
+                        }
+                    }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object[] decode(byte op, DataInput in) throws IOException {
+        String schema=SCHEMA[op];
+        Object[] args=new Object[schema.length()];
+        for(int i=0;i<schema.length();i++){
+            switch(schema.charAt(i)){
+                case 'S':
+                    args[i]=readString(in);
+                    break;
+                case 'I':
+                    args[i]=in.readInt();
+                    break;
+                case 'L':
+                    args[i]=in.readLong();
+                    break;
+                case 'A':
+                    int[] ints=new int[in.readInt()];
+                    for(int j=0;j<ints.length;j++){
+                        ints[j]=in.readInt();
+                    }
+                    args[i]=ints;
+                    break;
+                default:
+                    int size=in.readInt();
+                    List<String> values=null;
+                    if(size>=0){
+                        values=new ArrayList<>(size);
+                        for(int j=0;j<size;j++){
+                            values.add(readString(in));
+                        }
+                    }
+                    args[i]=values;
+            }
+        }
+        return args;
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        //length-prefixed UTF-8, -1 for null; unlike writeUTF this has no 64KB limit
+        if(value==null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes=value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length=in.readInt();
+        if(length<0){
+            return null;
+        }
+        byte[] bytes=new byte[length];
+        in.readFully(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+package com.driver;
+
+import io.micrometer.core.instrument.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class SpotifyMetrics {
+    //Meters for the service and repository, registered on Micrometer's global registry which Spring Boot
+    //links to the Prometheus registry behind /actuator/prometheus. Timers and counters are created once
+    //up front so recording a call is two nanoTime reads and a histogram update.
+
+    public enum Operation {
+        CREATE_USER, CREATE_ARTIST, CREATE_ALBUM, CREATE_SONG,
+        CREATE_USERS, CREATE_ALBUMS, CREATE_SONGS,
+        CREATE_PLAYLIST_ON_LENGTH, CREATE_PLAYLIST_ON_LENGTH_RANGE, CREATE_PLAYLIST_ON_NAME, CREATE_PLAYLIST_ON_QUERY,
+        FIND_PLAYLIST, LIKE_SONG,
+        MOST_POPULAR_ARTIST, MOST_POPULAR_SONG, MOST_POPULAR_ARTISTS, MOST_POPULAR_SONGS,
+        TRENDING_SONGS, TRENDING_ARTISTS,
+        RECOMMEND, SIMILAR_SONGS,
+        JOIN_PLAYLIST, PLAYLIST_LISTENER_COUNT,
+        CATALOG_STATS, EXPORT, IMPORT,
+        PLAYLIST_SONGS, PLAYLIST_LISTENERS, ALBUM_SONGS, ARTIST_ALBUMS, USER_PLAYLISTS, CREATED_PLAYLISTS,
+        SEARCH;
+
+        private final Timer timer;
+        private final String tag;
+
+        Operation(){
+            this.tag = name().toLowerCase();
+            this.timer = Timer.builder("spotify.operation")
+                    .description("Latency of SpotifyService calls")
+                    .tag("operation", tag)
+                    .publishPercentileHistogram()
+                    .register(Metrics.globalRegistry);
+        }
+    }
+
+    public enum ErrorCode {
+        //the error tag of spotify.operation.errors: the repository's fixed messages get a code each, anything
+        //else is tagged by kind, so the tag has these values only
+        USER_NOT_FOUND("User does not exist"),
+        SONG_NOT_FOUND("Song does not exist"),
+        ALBUM_NOT_FOUND("Album does not exist"),
+        ARTIST_NOT_FOUND("Artist does not exist"),
+        PLAYLIST_NOT_FOUND("Playlist does not exist"),
+        TOO_MANY_LIKES("Too many likes, try again later"),
+        READ_ONLY("Repository is read-only"),
+        //rejected arguments: limits, k, cursors, unknown windows or types, missing fields
+        INVALID_REQUEST(null),
+        IO(null),
+        INTERNAL(null);
+
+        private static final Map<String, ErrorCode> BY_MESSAGE = new HashMap<>();
+
+        static {
+            for(ErrorCode code:values()){
+                if(code.message!=null){
+                    BY_MESSAGE.put(code.message,code);
+                }
+            }
+        }
+
+        private final String message;
+        private final String tag;
+
+        ErrorCode(String message){
+            this.message = message;
+            this.tag = name().toLowerCase();
+        }
+
+        public static ErrorCode of(Exception e){
+            ErrorCode code=e.getMessage()==null ? null : BY_MESSAGE.get(e.getMessage());
+            if(code!=null){
+                return code;
+            }
+            if(e instanceof IOException){
+                return IO;
+            }
+            //the service throws plain Exceptions for bad requests only; other runtime exceptions are bugs
+            if(e.getClass()==Exception.class || e instanceof IllegalArgumentException){
+                return INVALID_REQUEST;
+            }
+            return INTERNAL;
+        }
+    }
+
+    public enum Task {
+        //work done on background threads, whose failures no caller sees
+        SNAPSHOT, JOURNAL_FLUSH, SHUTDOWN;
+
+        private final Counter failures;
+
+        Task(){
+            this.failures = Metrics.counter("spotify.background.failures","task",name().toLowerCase());
+        }
+
+        public void failed(){
+            failures.increment();
+        }
+    }
+
+    public static final Counter LIKES = Metrics.counter("spotify.likes");
+    public static final Counter DUPLICATE_LIKES = Metrics.counter("spotify.likes.duplicate");
+    public static final Counter FAILED_LIKES = Metrics.counter("spotify.likes.failed");
+
+    private SpotifyMetrics(){
+
+    }
+
+    public static <T, E extends Exception> T time(Operation operation, Call<T, E> call) throws E {
+        long start=System.nanoTime();
+        try{
+            return call.apply();
+        }catch(Exception e){
+            //tagged with an ErrorCode, not the message: messages can carry request values and every distinct
+            //tag value is a new time series
+            Metrics.counter("spotify.operation.errors","operation",operation.tag,"error",ErrorCode.of(e).tag).increment();
+            throw e;
+        }finally{
+            operation.timer.record(System.nanoTime()-start,TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static void registerGauges(SpotifyRepository repository) {
+        //one gauge per repository collection, tagged with the field name; the gauges hold the repository weakly
+        gauge(repository,"users",r->r.userCount());
+        gauge(repository,"songs",r->r.songs.size());
+        gauge(repository,"playlists",r->r.playlists.size());
+        gauge(repository,"albums",r->r.albums.size());
+        gauge(repository,"artists",r->r.artists.size());
+        adjacency(repository,"artistAlbums",r->r.artistAlbums);
+        adjacency(repository,"albumSongs",r->r.albumSongs);
+        adjacency(repository,"playlistSongs",r->r.playlistSongs);
+        adjacency(repository,"playlistListeners",r->r.playlistListeners);
+        gauge(repository,"createdPlaylists",r->sum(r,shard->shard.createdPlaylists.rows()));
+        gauge(repository,"playlistCreatorMap",r->r.playlistCreatorMap.size());
+        gauge(repository,"playlistMembers",r->r.playlistMembers.size());
+        gauge(repository,"userPlaylists",r->sum(r,shard->shard.userPlaylists.rows()));
+        Gauge.builder("spotify.repository.edges",repository,r->sum(r,shard->shard.userPlaylists.edges()))
+                .description("Edges in a SpotifyRepository relationship")
+                .tag("collection","userPlaylists")
+                .register(Metrics.globalRegistry);
+        adjacency(repository,"songLikes",r->r.songLikes);
+        gauge(repository,"userIndex",r->sum(r,shard->shard.userIndex.size()));
+        gauge(repository,"artistIndex",r->r.artistIndex.size());
+        gauge(repository,"albumIndex",r->r.albumIndex.size());
+        gauge(repository,"playlistIndex",r->r.playlistIndex.size());
+        gauge(repository,"songTitleIndex",r->r.songTitleIndex.size());
+        gauge(repository,"songAlbumMap",r->r.songAlbumMap.size());
+        gauge(repository,"albumArtistMap",r->r.albumArtistMap.size());
+        gauge(repository,"songLengthIndex",r->r.songLengthIndex.size());
+        gauge(repository,"songLikers",r->r.songLikers.size());
+        gauge(repository,"songLeaderboard",r->r.songLeaderboard.size());
+        gauge(repository,"artistLeaderboard",r->r.artistLeaderboard.size());
+        gauge(repository,"songSearch",r->r.songSearch.size());
+        gauge(repository,"albumSearch",r->r.albumSearch.size());
+        gauge(repository,"artistSearch",r->r.artistSearch.size());
+        for(String window:repository.songTrending.keySet()){
+            gauge(repository,"songTrending."+window,r->r.songTrending.get(window).size());
+            gauge(repository,"artistTrending."+window,r->r.artistTrending.get(window).size());
+        }
+        gauge(repository,"recentLikes",r->sum(r,shard->shard.recentLikes.size()));
+        gauge(repository,"cooccurrence",r->r.recommender.rows());
+        Gauge.builder("spotify.repository.edges",repository,r->r.recommender.entries())
+                .description("Edges in a SpotifyRepository relationship")
+                .tag("collection","cooccurrence")
+                .register(Metrics.globalRegistry);
+        gauge(repository,"neighbors",r->r.recommender.ranked());
+        gauge(repository,"recommendCache",r->r.recommender.cached());
+        gauge(repository,"responseCache",r->r.responses.size());
+        for(UserShard shard:repository.shards){
+            //shows whether mobiles spread evenly over the shards
+            Gauge.builder("spotify.repository.shard.users",shard,s->s.users.size())
+                    .description("Users owned by one user shard")
+                    .tag("shard",Integer.toString(shard.getIndex()))
+                    .register(Metrics.globalRegistry);
+        }
+    }
+
+    private static double sum(SpotifyRepository repository, java.util.function.ToDoubleFunction<UserShard> size) {
+        double total=0;
+        for(UserShard shard:repository.shards){
+            total+=size.applyAsDouble(shard);
+        }
+        return total;
+    }
+
+    private static void adjacency(SpotifyRepository repository, String collection, java.util.function.Function<SpotifyRepository, IntAdjacency> adjacency) {
+        //the size of a relationship is its number of rows, its edges get a gauge of their own
+        gauge(repository,collection,r->adjacency.apply(r).rows());
+        Gauge.builder("spotify.repository.edges",repository,r->adjacency.apply(r).edges())
+                .description("Edges in a SpotifyRepository relationship")
+                .tag("collection",collection)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static void gauge(SpotifyRepository repository, String collection, java.util.function.ToDoubleFunction<SpotifyRepository> size) {
+        Gauge.builder("spotify.repository.size",repository,size)
+                .description("Entries in a SpotifyRepository collection")
+                .tag("collection",collection)
+                .register(Metrics.globalRegistry);
+    }
+
+    public interface Call<T, E extends Exception> {
+        T apply() throws E;
+    }
+}
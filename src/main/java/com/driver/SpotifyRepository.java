@@ -1,179 +1,889 @@
 package com.driver;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public class SpotifyRepository {
-    public HashMap<Artist, List<Album>> artistAlbumMap;
-    public HashMap<Album, List<Song>> albumSongMap;
-    public HashMap<Playlist, List<Song>> playlistSongMap;
-    public HashMap<Playlist, List<User>> playlistListenerMap;
-    public HashMap<User, Playlist> creatorPlaylistMap;
-    public HashMap<User, List<Playlist>> userPlaylistMap;
-    public HashMap<Song, List<User>> songLikeMap;
-
-    public List<User> users;
+public class SpotifyRepository implements Closeable {
+    //The repository is a singleton shared by every request thread. Maps are concurrent, the lists stored
+    //in them are synchronized, and compound updates lock only the entity or list they touch.
+    //One-to-many relationships are kept by entity id, see IntAdjacency: artist -> albums, album -> songs,
+    //playlist -> songs, playlist -> listeners and song -> users who liked it.
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpotifyRepository.class);
+
+    public IntAdjacency artistAlbums;
+    public IntAdjacency albumSongs;
+    public IntAdjacency playlistSongs;
+    public IntAdjacency playlistListeners;
+    public IntAdjacency songLikes;
+
+    //Users, their mobile index, the playlists they created or listen to and their queued likes are split
+    //by mobile into spotify.shards shards (default 1), each with its own locks, see UserShard
+    public UserShard[] shards;
+
     public List<Song> songs;
     public List<Playlist> playlists;
     public List<Album> albums;
     public List<Artist> artists;
 
+    //Secondary indexes, kept in sync by the create methods so lookups don't scan the lists above
+    public ConcurrentHashMap<String, Artist> artistIndex;
+    public ConcurrentHashMap<String, Album> albumIndex;
+    public ConcurrentHashMap<String, Playlist> playlistIndex;
+    public ConcurrentHashMap<String, List<Song>> songTitleIndex;
+
+    //Back-references so a like can reach the album and artist of a song directly
+    public ConcurrentHashMap<Song, Album> songAlbumMap;
+    public ConcurrentHashMap<Album, Artist> albumArtistMap;
+
+    //Songs bucketed by length, sorted so range queries only touch the matching buckets
+    public ConcurrentSkipListMap<Integer, List<Song>> songLengthIndex;
+
+    //Kept up to date by likeSong so the popularity endpoints never scan the catalog
+    public Leaderboard<Song> songLeaderboard;
+    public Leaderboard<Artist> artistLeaderboard;
+
+    //Recent likes per window from spotify.trending.windows, the first window is the default, see TrendingBoard
+    public Map<String, TrendingBoard<Song>> songTrending;
+    public Map<String, TrendingBoard<Artist>> artistTrending;
+
+    //Songs liked together, from each user's spotify.recommend.history latest likes, see Recommender
+    public Recommender recommender;
+
+    //Who liked each song, by user id, so the duplicate-like check is a single bit test
+    public ConcurrentHashMap<Song, IdBitSet> songLikers;
+
+    //Listener ids of each playlist, creator included, so joining is a single bit test; playlistListeners
+    //keeps the join order for listings
+    public ConcurrentHashMap<Playlist, IdBitSet> playlistMembers;
+    public ConcurrentHashMap<Playlist, User> playlistCreatorMap;
+
+    //Prefix and typo-tolerant title search, see SearchIndex
+    public SearchIndex<Song> songSearch;
+    public SearchIndex<Album> albumSearch;
+    public SearchIndex<Artist> artistSearch;
+
+    //Picks an index for each createPlaylistOnQuery
+    public SongQueryPlanner songQueries;
+
+    //Answers of the service's read methods, invalidated by the writes below, see ResponseCache
+    public ResponseCache responses;
+
+
+    //Immutable copy of the leaderboards and counts the GET endpoints read, republished by writers, see publishView
+    private final AtomicReference<ReadView> view;
+    private final AtomicLong viewRequested;
+    private final AtomicInteger viewStale;
+    private final AtomicBoolean viewPublishing;
+    //true while openJournal replays, so recovery publishes one view at the end rather than one per record
+    private boolean replaying;
+    //true while a snapshot or dump is loaded: its likes come grouped by song rather than in each user's order,
+    //so the recommender's state is restored from the file instead of recorded from them
+    private boolean restoringLikes;
+    //true while load runs, the leaderboards and search indexes are built in one pass at its end
+    private boolean bulkLoading;
+    //set on replicas and while load runs, every write is refused
+    private volatile boolean readOnly;
+    //each writer thread's copy of a user's recent likes, handed to the recommender
+    private final ThreadLocal<int[]> recentBuffer = ThreadLocal.withInitial(()->new int[0]);
+
+    static final int VIEW_SIZE = SpotifySettings.getInt("spotify.view.top-k", 100);
+    private static final int MAX_SEARCH_LIMIT = 1000;
+    //past the read view the popular lists walk the leaderboard on the request thread; a larger k is cut to this
+    static final int MAX_POPULAR_K = Math.max(VIEW_SIZE, 1000);
+
+    //Only set when the repository was opened on a journal directory, see openJournal
+    private SpotifyJournal journal;
+    private Path journalDir;
+    private ScheduledExecutorService snapshotter;
+
+    //Only set by open, refreshes the trending lists and recommendations; a repository made with new
+    //refreshes on refreshTrending and refreshRecommendations
+    private ScheduledExecutorService refresher;
+
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final ConcurrentHashMap<String, SpotifyRepository> sharedRepositories = new ConcurrentHashMap<>();
+
     public SpotifyRepository(){
+        this(SpotifySettings.getInt("spotify.shards",1));
+    }
+
+    public SpotifyRepository(int shardCount){
         //To avoid hitting apis multiple times, initialize all the hashmaps here with some dummy data
-        artistAlbumMap = new HashMap<>();
-        albumSongMap = new HashMap<>();
-        playlistSongMap = new HashMap<>();
-        playlistListenerMap = new HashMap<>();
-        creatorPlaylistMap = new HashMap<>();
-        userPlaylistMap = new HashMap<>();
-        songLikeMap = new HashMap<>();
+        artistAlbums = new IntAdjacency();
+        albumSongs = new IntAdjacency();
+        playlistSongs = new IntAdjacency();
+        playlistListeners = new IntAdjacency();
+        songLikes = new IntAdjacency();
+
+        if(shardCount<1){
+            throw new IllegalArgumentException("spotify.shards must be at least 1");
+        }
+        shards = new UserShard[shardCount];
+        for(int i=0;i<shardCount;i++){
+            shards[i] = new UserShard(i,shardCount);
+        }
+
+        songs = Collections.synchronizedList(new ArrayList<>());
+        playlists = Collections.synchronizedList(new ArrayList<>());
+        albums = Collections.synchronizedList(new ArrayList<>());
+        artists = Collections.synchronizedList(new ArrayList<>());
+
+        artistIndex = new ConcurrentHashMap<>();
+        albumIndex = new ConcurrentHashMap<>();
+        playlistIndex = new ConcurrentHashMap<>();
+        songTitleIndex = new ConcurrentHashMap<>();
+
+        songAlbumMap = new ConcurrentHashMap<>();
+        albumArtistMap = new ConcurrentHashMap<>();
+
+        songLengthIndex = new ConcurrentSkipListMap<>();
+
+        songLeaderboard = new Leaderboard<>(Song::getLikes, Song::getId, Song::addLikes);
+        artistLeaderboard = new Leaderboard<>(Artist::getLikes, Artist::getId, Artist::addLikes);
+
+        songTrending = new LinkedHashMap<>();
+        artistTrending = new LinkedHashMap<>();
+        int trendingTopK=SpotifySettings.getInt("spotify.trending.top-k",100);
+        int trendingMaxEntries=SpotifySettings.getInt("spotify.trending.max-entries",100000);
+        long now=System.currentTimeMillis();
+        for(String setting:SpotifySettings.get("spotify.trending.windows","1h,24h").split(",")){
+            String window=setting.trim();
+            songTrending.put(window,new TrendingBoard<>(window,trendingTopK,trendingMaxEntries,Song::getId,Song::getTitle,now));
+            artistTrending.put(window,new TrendingBoard<>(window,trendingTopK,trendingMaxEntries,Artist::getId,Artist::getName,now));
+        }
+
+        recommender = new Recommender(this,
+                SpotifySettings.getInt("spotify.recommend.history",20),
+                SpotifySettings.getInt("spotify.recommend.neighbors",50),
+                SpotifySettings.getInt("spotify.recommend.min-cooccurrence",2),
+                Integer.highestOneBit(Math.max(1,SpotifySettings.getInt("spotify.recommend.sketch-width",1 << 20))),
+                SpotifySettings.getInt("spotify.recommend.cache-size",10000));
+
+        songLikers = new ConcurrentHashMap<>();
+
+        playlistMembers = new ConcurrentHashMap<>();
+        playlistCreatorMap = new ConcurrentHashMap<>();
+
+        songQueries = new SongQueryPlanner(this);
+        responses = new ResponseCache(SpotifySettings.getInt("spotify.cache.size",10000),
+                SpotifySettings.getLong("spotify.cache.ttl-ms",1000));
+
+        songSearch = new SearchIndex<>();
+        albumSearch = new SearchIndex<>();
+        artistSearch = new SearchIndex<>();
+
+        view = new AtomicReference<>(ReadView.empty(VIEW_SIZE));
+        viewRequested = new AtomicLong();
+        viewStale = new AtomicInteger();
+        viewPublishing = new AtomicBoolean();
+    }
+
+    public static SpotifyRepository open() {
+        //In-memory unless spotify.journal.dir is set. A repository backed by a journal is shared per directory, so the Spring bean and the controller's own service end up on the same state.
+        //With spotify.replica.source (a node's base URL or a dump file) it is a read-only copy of that dump;
+        //a replica keeps no journal of its own.
+        String journalDir=SpotifySettings.get("spotify.journal.dir",null);
+        String replicaSource=SpotifySettings.get("spotify.replica.source",null);
+        if(replicaSource!=null){
+            return sharedRepositories.computeIfAbsent("replica|"+replicaSource,key->{
+                try{
+                    SpotifyRepository repository=new SpotifyRepository();
+                    try(InputStream in=SpotifyDump.open(replicaSource)){
+                        repository.load(in);
+                    }
+                    repository.readOnly=true;
+                    return repository.startRefreshers();
+                }catch(IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        if(journalDir==null){
+            return new SpotifyRepository().startLikePipeline().startRefreshers();
+        }
+        SpotifyJournal.FsyncPolicy policy=SpotifyJournal.FsyncPolicy.valueOf(SpotifySettings.get("spotify.journal.fsync","interval").toUpperCase());
+        long fsyncIntervalMillis=SpotifySettings.getLong("spotify.journal.fsync-interval-ms",100);
+        long snapshotIntervalSeconds=SpotifySettings.getLong("spotify.snapshot.interval-seconds",300);
+        return sharedRepositories.computeIfAbsent(journalDir,key->{
+            try{
+                SpotifyRepository repository=new SpotifyRepository();
+                repository.openJournal(Paths.get(journalDir),policy,fsyncIntervalMillis,snapshotIntervalSeconds);
+                return repository.startLikePipeline().startRefreshers();
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private SpotifyRepository startLikePipeline() {
+        //one pipeline per shard, the queue capacity and consumer count apply to each
+        if(SpotifySettings.getBoolean("spotify.likes.async",false)){
+            setLikePipelines(()->new LikePipeline(this,
+                    SpotifySettings.getInt("spotify.likes.queue-capacity",65536),
+                    SpotifySettings.getInt("spotify.likes.consumers",1),
+                    SpotifySettings.getInt("spotify.likes.batch-size",4096),
+                    LikePipeline.Backpressure.valueOf(SpotifySettings.get("spotify.likes.backpressure","block").toUpperCase().replace('-','_'))));
+        }
+        return this;
+    }
+
+    private SpotifyRepository startRefreshers() {
+        long trendingMillis=SpotifySettings.getLong("spotify.trending.refresh-ms",1000);
+        long recommendMillis=SpotifySettings.getLong("spotify.recommend.refresh-ms",5000);
+        refresher=Executors.newSingleThreadScheduledExecutor(r->{
+            Thread thread=new Thread(r,"spotify-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshTrending,trendingMillis,trendingMillis,TimeUnit.MILLISECONDS);
+        refresher.scheduleWithFixedDelay(this::refreshRecommendations,recommendMillis,recommendMillis,TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public void refreshTrending() {
+        long now=System.currentTimeMillis();
+        for(TrendingBoard<Song> board:songTrending.values()){
+            board.refresh(now);
+        }
+        for(TrendingBoard<Artist> board:artistTrending.values()){
+            board.refresh(now);
+        }
+        responses.changed(ResponseCache.TRENDING);
+    }
+
+    public void refreshRecommendations() {
+        recommender.refresh();
+    }
+
+    public void setLikePipelines(Supplier<LikePipeline> pipelines) {
+        for(UserShard shard:shards){
+            shard.likePipeline=pipelines.get();
+        }
+    }
+
+    public void awaitLikes() throws InterruptedException {
+        //returns once every like queued so far has been applied
+        for(LikePipeline pipeline:likePipelines()){
+            pipeline.awaitIdle();
+        }
+    }
+
+    public void setLikePipeline(LikePipeline likePipeline) {
+        //shared by every shard
+        for(UserShard shard:shards){
+            shard.likePipeline=likePipeline;
+        }
+    }
+
+    private Set<LikePipeline> likePipelines() {
+        Set<LikePipeline> pipelines=Collections.newSetFromMap(new IdentityHashMap<>());
+        for(UserShard shard:shards){
+            if(shard.likePipeline!=null){
+                pipelines.add(shard.likePipeline);
+            }
+        }
+        return pipelines;
+    }
+
+    public static SpotifyRepository open(Path dir, SpotifyJournal.FsyncPolicy policy, long fsyncIntervalMillis, long snapshotIntervalSeconds) throws IOException {
+        SpotifyRepository repository=new SpotifyRepository();
+        repository.openJournal(dir,policy,fsyncIntervalMillis,snapshotIntervalSeconds);
+        return repository;
+    }
+
+    public void openJournal(Path dir, SpotifyJournal.FsyncPolicy policy, long fsyncIntervalMillis, long snapshotIntervalSeconds) throws IOException {
+        //Recovery: load the latest snapshot, replay the journal segments written after it, then start a fresh segment.
+        //Must be called on a new repository, before it serves any call.
+        Files.createDirectories(dir);
+        int firstSegment=1;
+        int lastSegment;
+        Path snapshot=dir.resolve(SNAPSHOT_FILE);
+        replaying=true;
+        try{
+            if(Files.exists(snapshot)){
+                restoringLikes=true;
+                try(DataInputStream in=new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot),1 << 16))){
+                    firstSegment=SpotifySnapshot.read(in,this);
+                }finally{
+                    restoringLikes=false;
+                }
+            }
+            lastSegment=firstSegment-1;
+            for(int segment:SpotifyJournal.segments(dir)){
+                if(segment>=firstSegment){
+                    SpotifyJournal.replay(dir,segment,this::replay);
+                    lastSegment=segment;
+                }
+            }
+        }finally{
+            replaying=false;
+        }
+        publishView();
+
+        journal=SpotifyJournal.open(dir,lastSegment+1,policy,fsyncIntervalMillis);
+        journal.deleteSegmentsBefore(firstSegment);
+        journalDir=dir;
+        if(snapshotIntervalSeconds>0){
+            snapshotter=Executors.newSingleThreadScheduledExecutor(r->{
+                Thread thread=new Thread(r,"spotify-snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotter.scheduleWithFixedDelay(()->{
+                try{
+                    snapshot();
+                }catch(IOException e){
+                    LOG.error("Snapshot of {} failed",dir,e);
+                    SpotifyMetrics.Task.SNAPSHOT.failed();
+                }
+            },snapshotIntervalSeconds,snapshotIntervalSeconds,TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(()->{
+            try{
+                close();
+            }catch(IOException e){
+                LOG.error("Closing the journal in {} failed",dir,e);
+                SpotifyMetrics.Task.SHUTDOWN.failed();
+            }
+        }));
+    }
+
+    public void snapshot() throws IOException {
+        //Mutations are blocked only while the state is encoded in memory; the file is written after they resume
+        if(journal==null){
+            throw new IllegalStateException("Repository has no journal directory");
+        }
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream(1 << 20);
+        int firstSegment=journal.roll(segment->{
+            try{
+                //likes already journaled but still queued must be in the snapshot, their segment is deleted below
+                awaitLikes();
+                SpotifySnapshot.write(this,new DataOutputStream(bytes),segment);
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while draining likes",e);
+            }
+        });
+        Path tmp=journalDir.resolve(SNAPSHOT_FILE+".tmp");
+        try(FileChannel channel=FileChannel.open(tmp,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer=ByteBuffer.wrap(bytes.toByteArray());
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp,journalDir.resolve(SNAPSHOT_FILE),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        journal.deleteSegmentsBefore(firstSegment);
+    }
 
-        users = new ArrayList<>();
-        songs = new ArrayList<>();
-        playlists = new ArrayList<>();
-        albums = new ArrayList<>();
-        artists = new ArrayList<>();
+    public void export(OutputStream out) throws IOException {
+        //Writes a SpotifyDump of the repository while writes go on
+        SpotifyDump.write(this,Channels.newChannel(out));
+    }
+
+    public void load(InputStream in) throws IOException {
+        //Fills an empty repository from a SpotifyDump. Writes are refused while it runs; the read view is
+        //published once at the end, and a journaled repository snapshots the result, which is not journaled.
+        if(userCount()>0 || !artists.isEmpty() || !albums.isEmpty() || !playlists.isEmpty()){
+            throw new IOException("Repository is not empty");
+        }
+        boolean wasReadOnly=readOnly;
+        readOnly=true;
+        replaying=true;
+        bulkLoading=true;
+        restoringLikes=true;
+        try{
+            SpotifyDump.read(Channels.newChannel(in),this);
+        }finally{
+            restoringLikes=false;
+            bulkLoading=false;
+            replaying=false;
+            readOnly=wasReadOnly;
+        }
+        responses.changed(ResponseCache.RANKINGS | ResponseCache.CATALOG | ResponseCache.LISTENERS);
+        publishView();
+        if(journal!=null){
+            snapshot();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        //stops the background threads and the like pipelines, then closes the journal; safe to call twice
+        if(snapshotter!=null){
+            snapshotter.shutdown();
+        }
+        if(refresher!=null){
+            refresher.shutdown();
+        }
+        for(LikePipeline pipeline:likePipelines()){
+            pipeline.close();
+        }
+        if(journal!=null){
+            journal.close();
+        }
+    }
+
+    private void replay(byte op, Object[] args) {
+        //only calls that succeeded were logged, so replaying them against the recovered state succeeds again
+        try{
+            switch(op){
+                case SpotifyJournal.CREATE_USER:
+                    createUser((String) args[0],(String) args[1]);
+                    break;
+                case SpotifyJournal.CREATE_ARTIST:
+                    createArtist((String) args[0]);
+                    break;
+                case SpotifyJournal.CREATE_ALBUM:
+                    addAlbum((String) args[0],(String) args[1],new Date((Long) args[2]));
+                    break;
+                case SpotifyJournal.CREATE_SONG:
+                    createSong((String) args[0],(String) args[1],(Integer) args[2]);
+                    break;
+                case SpotifyJournal.CREATE_PLAYLIST_ON_LENGTH:
+                    createPlaylistOnLength((String) args[0],(String) args[1],(Integer) args[2]);
+                    break;
+                case SpotifyJournal.CREATE_PLAYLIST_ON_LENGTH_RANGE:
+                    createPlaylistOnLengthRange((String) args[0],(String) args[1],(Integer) args[2],(Integer) args[3]);
+                    break;
+                case SpotifyJournal.CREATE_PLAYLIST_ON_NAME:
+                    createPlaylistOnName((String) args[0],(String) args[1],castList(args[2]));
+                    break;
+                case SpotifyJournal.CREATE_PLAYLIST_ON_SONGS:
+                    int[] songIds=(int[]) args[2];
+                    List<Song> songList=new ArrayList<>(songIds.length);
+                    for(int id:songIds){
+                        songList.add(songs.get(id));
+                    }
+                    createPlaylistOnSongs((String) args[0],(String) args[1],songList);
+                    break;
+                case SpotifyJournal.FIND_PLAYLIST:
+                    findPlaylist((String) args[0],(String) args[1]);
+                    break;
+                case SpotifyJournal.LIKE_SONG:
+                    likeSong((String) args[0],(String) args[1]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record "+op);
+            }
+        }catch(Exception e){
+            throw new IllegalStateException("Journal replay failed",e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> castList(Object value) {
+        return (List<String>) value;
+    }
+
+    private <T, E extends Exception> T journaled(Mutation<T, E> mutation, byte op, Object... args) throws E {
+        //Applies the mutation and logs it under the journal lock so the log order matches the apply order.
+        //Failed calls are not logged; the read view is republished and durability awaited after the lock is
+        //released, so concurrent callers share one rebuild and one fsync.
+        checkWritable();
+        SpotifyJournal journal=this.journal;
+        T result;
+        long seq=0;
+        if(journal==null){
+            result=mutation.apply();
+        }else{
+            journal.lock();
+            try{
+                result=mutation.apply();
+                seq=journal.append(op,args);
+            }finally{
+                journal.unlock();
+            }
+        }
+        publishView();
+        if(journal!=null){
+            journal.sync(seq);
+        }
+        return result;
+    }
+
+    private <T, E extends Exception> T logged(Mutation<T, E> mutation, byte op, Object... args) throws E {
+        //A batch row: the batch already holds the journal lock, and publishes and syncs once for all rows
+        T result=mutation.apply();
+        if(journal!=null){
+            journal.append(op,args);
+        }
+        return result;
+    }
+
+    private List<String> batch(List<IngestRow> rows, RowWriter writer) {
+        //Applies all rows under one journal lock and waits for a single sync; a failing row is reported, not fatal
+        checkWritable();
+        List<String> errors=new ArrayList<>(rows.size());
+        SpotifyJournal journal=this.journal;
+        long seq=0;
+        if(journal!=null){
+            journal.lock();
+        }
+        try{
+            for(IngestRow row:rows){
+                try{
+                    writer.write(row);
+                    errors.add(null);
+                }catch(Exception e){
+                    errors.add(e.getMessage());
+                }
+            }
+            if(journal!=null){
+                seq=journal.lastSeq();
+            }
+        }finally{
+            if(journal!=null){
+                journal.unlock();
+            }
+        }
+        publishView();
+        if(journal!=null){
+            journal.sync(seq);
+        }
+        return errors;
+    }
+
+    private void checkWritable() {
+        if(readOnly){
+            throw new IllegalStateException("Repository is read-only");
+        }
+    }
+
+    private void viewChanged(int stale) {
+        //the stale bits go in before the request, so a rebuild that sees the request also sees them
+        if(stale!=0){
+            viewStale.getAndAccumulate(stale,(a,b)->a|b);
+        }
+        viewRequested.incrementAndGet();
+    }
+
+    void publishView() {
+        //Rebuilds the read view if a write asked for it since the last one. Only one thread rebuilds at a
+        //time; a writer that finds a rebuild running leaves, and the rebuilding thread loops until its view
+        //covers every request, so the view lags a write by at most one rebuild.
+        while(!replaying && view.get().getVersion()<viewRequested.get()){
+            if(!viewPublishing.compareAndSet(false,true)){
+                return;
+            }
+            try{
+                long version=viewRequested.get();
+                int stale=viewStale.getAndSet(0);
+                view.set(ReadView.build(version,this,view.get(),stale));
+                responses.changed(((stale & ReadView.SONGS)!=0 ? ResponseCache.SONGS : 0)
+                        | ((stale & ReadView.ARTISTS)!=0 ? ResponseCache.ARTISTS : 0));
+            }finally{
+                viewPublishing.set(false);
+            }
+        }
+    }
+
+    public ReadView readView() {
+        return view.get();
+    }
+
+    private interface Mutation<T, E extends Exception> {
+        T apply() throws E;
+    }
+
+    private interface RowWriter {
+        void write(IngestRow row) throws Exception;
     }
 
     public User createUser(String name, String mobile) {
-        User user=new User();
-        user.setMobile(mobile);
-        user.setName(name);
-        users.add(user);
+        required(mobile,"mobile");
+        return journaled(()->addUser(name,mobile),SpotifyJournal.CREATE_USER,name,mobile);
+    }
+
+    User addUser(String name, String mobile) {
+        User user=shard(mobile).add(name,mobile);
+        viewChanged(0);
         return user;
     }
 
+    private static void required(String value, String field) {
+        //the indexes can't hold null keys, so a create call without one fails before anything changes
+        if(value==null){
+            throw new IllegalArgumentException("Missing field "+field);
+        }
+    }
+
+    UserShard shard(String mobile) {
+        return shards[Math.floorMod(mobile.hashCode(),shards.length)];
+    }
+
+    UserShard shardOf(User user) {
+        return shards[user.getId() % shards.length];
+    }
+
+    public User user(int id) {
+        return shards[id % shards.length].get(id);
+    }
+
+    public int userCount() {
+        int count=0;
+        for(UserShard shard:shards){
+            count+=shard.users.size();
+        }
+        return count;
+    }
+
+    public List<User> allUsers() {
+        //every user in id order, which is the order they were created in within each shard
+        List<User> all=new ArrayList<>(userCount());
+        for(UserShard shard:shards){
+            synchronized (shard.users){
+                all.addAll(shard.users);
+            }
+        }
+        all.sort(Comparator.comparingInt(User::getId));
+        return all;
+    }
+
     public Artist createArtist(String name) {
+        required(name,"name");
+        return journaled(()->addArtist(name),SpotifyJournal.CREATE_ARTIST,name);
+    }
+
+    Artist addArtist(String name) {
        Artist artist=new Artist();
        artist.setName(name);
        artist.setLikes(0);
-       artists.add(artist);
+       synchronized (artists){
+           artist.setId(artists.size());
+           artists.add(artist);
+       }
+       if(!bulkLoading){
+           artistLeaderboard.add(artist);
+       }
+       artistIndex.putIfAbsent(name,artist);
+       if(!bulkLoading){
+           artistSearch.add(name,artist);
+       }
+       responses.changed(ResponseCache.RANKINGS | ResponseCache.CATALOG);
+       //a new artist has no likes and the highest id, it can only be listed while the list is not full
+       viewChanged(view.get().getTopArtists().size()<VIEW_SIZE ? ReadView.ARTISTS : 0);
        return artist;
     }
 
     public Album createAlbum(String title, String artistName) {
         //If the artist does not exist, first create an artist with given name
         //Create an album with given title and artist
-        Artist artist=null;
-        for(Artist artist1:artists){
-            if(artist1.getName().equals(artistName)){
-                artist=artist1;
-                break;
-            }
-        }
+        required(title,"title");
+        required(artistName,"artistName");
+        Date releaseDate=new Date();
+        return journaled(()->addAlbum(title,artistName,releaseDate),SpotifyJournal.CREATE_ALBUM,title,artistName,releaseDate.getTime());
+    }
+
+    Album addAlbum(String title, String artistName, Date releaseDate) {
+        return addAlbum(title,findOrAddArtist(artistName),releaseDate);
+    }
+
+    private Artist findOrAddArtist(String name) {
+        Artist artist=artistIndex.get(name);
         if(artist==null){
-            artist=createArtist(artistName);
+            addArtist(name);
+            //another request may have created the same artist first, use whichever one the index kept
+            artist=artistIndex.get(name);
         }
+        return artist;
+    }
+
+    Album addAlbum(String title, Artist artist, Date releaseDate) {
         Album album=new Album();
         album.setTitle(title);
-        album.setReleaseDate(new Date());
-        albums.add(album);
+        album.setReleaseDate(releaseDate);
+        synchronized (albums){
+            album.setId(albums.size());
+            albums.add(album);
+        }
 
-        List<Album>albumList=artistAlbumMap.getOrDefault(artist,new ArrayList<>());
-        albumList.add(album);
-        artistAlbumMap.put(artist,albumList);
+        artistAlbums.add(artist.getId(),album.getId());
+        albumArtistMap.put(album,artist);
+        albumIndex.putIfAbsent(title,album);
+        if(!bulkLoading){
+            albumSearch.add(title,album);
+        }
+        responses.changed(ResponseCache.CATALOG);
+        viewChanged(0);
         return album;
     }
 
     public Song createSong(String title, String albumName, int length) throws Exception{
         //If the album does not exist in database, throw "Album does not exist" exception
         //Create and add the song to respective album
-        Album album=null;
-        for( Album album1:albums){
-            if(album1.getTitle().equals(albumName)){
-                album=album1;
-                break;
+        required(title,"title");
+        return journaled(()->{
+            Album album=albumName==null ? null : albumIndex.get(albumName);
+            if(album==null){
+                throw new Exception("Album does not exist");
             }
-        }
-        if(album==null){
-            throw new Exception("Album does not exist");
-        }else{
-            Song song=new Song();
-            song.setTitle(title);
-            song.setLength(length);
-            song.setLikes(0);
+            return addSong(title,length,album);
+        },SpotifyJournal.CREATE_SONG,title,albumName,length);
+    }
+
+    Song addSong(String title, int length, Album album) {
+        Song song=new Song();
+        song.setTitle(title);
+        song.setLength(length);
+        song.setLikes(0);
+        synchronized (songs){
+            song.setId(songs.size());
             songs.add(song);
+        }
+        //link the song to its album before the title index makes it reachable from likeSong
+        albumSongs.add(album.getId(),song.getId());
+        songAlbumMap.put(song,album);
+        if(!bulkLoading){
+            songLeaderboard.add(song);
+        }
+        songLengthIndex.computeIfAbsent(length,l->Collections.synchronizedList(new ArrayList<>())).add(song);
+        songTitleIndex.computeIfAbsent(title,t->Collections.synchronizedList(new ArrayList<>())).add(song);
+        if(!bulkLoading){
+            songSearch.add(title,song);
+        }
+        responses.changed(ResponseCache.RANKINGS | ResponseCache.CATALOG);
+        viewChanged(view.get().getTopSongs().size()<VIEW_SIZE ? ReadView.SONGS : 0);
+        return song;
+    }
 
-            List<Song>songList=albumSongMap.getOrDefault(album,new ArrayList<>());
-            songList.add(song);
-            albumSongMap.put(album,songList);
+    public List<String> createUsers(List<IngestRow> rows) {
+        //Batch version of createUser, returns the error of every row (null when the row was created)
+        return batch(rows,row->logged(()->addUser(row.getName(),row.getMobile()),SpotifyJournal.CREATE_USER,row.getName(),row.getMobile()));
+    }
 
-            return song;
-        }
+    public List<String> createAlbums(List<IngestRow> rows) {
+        //Batch version of createAlbum, each artist is looked up or created once per batch
+        Map<String, Artist> resolved=new HashMap<>();
+        return batch(rows,row->{
+            Artist artist=resolved.computeIfAbsent(row.getArtistName(),this::findOrAddArtist);
+            Date releaseDate=new Date();
+            logged(()->addAlbum(row.getTitle(),artist,releaseDate),SpotifyJournal.CREATE_ALBUM,row.getTitle(),row.getArtistName(),releaseDate.getTime());
+        });
+    }
+
+    public List<String> createSongs(List<IngestRow> rows) {
+        //Batch version of createSong, each album is looked up once per batch
+        Map<String, Album> resolved=new HashMap<>();
+        return batch(rows,row->{
+            Album album=resolved.computeIfAbsent(row.getAlbumName(),albumIndex::get);
+            if(album==null){
+                throw new Exception("Album does not exist");
+            }
+            logged(()->addSong(row.getTitle(),row.getLength(),album),SpotifyJournal.CREATE_SONG,row.getTitle(),row.getAlbumName(),row.getLength());
+        });
     }
 
     public Playlist createPlaylistOnLength(String mobile, String title, int length) throws Exception {
         //Create a playlist with given title and add all songs having the given length in the database to that playlist
         //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
         //If the user does not exist, throw "User does not exist" exception
+        return journaled(()->{
+            User user=findUser(mobile);
+            List<Song>songList=new ArrayList<>(songLengthIndex.getOrDefault(length,Collections.emptyList()));
+            return createPlaylist(user,title,songList);
+        },SpotifyJournal.CREATE_PLAYLIST_ON_LENGTH,mobile,title,length);
+    }
 
-       User user=null;
-       for(User user1:users){
-           if(user1.getMobile().equals(mobile)){
-               user=user1;
-               break;
-           }
-       }
-       if(user==null){
-           throw new Exception("User does not exist");
-       }else{
-           Playlist playlist=new Playlist();
-           playlist.setTitle(title);
-           playlists.add(playlist);
-           List<Song>songList=new ArrayList<>();
-
-           for(Song song:songs){
-               if(song.getLength()==length){
-                   songList.add(song);
-               }
-           }
-           playlistSongMap.put(playlist,songList);
-           List<User>userList=new ArrayList<>();
-           userList.add(user);
-           playlistListenerMap.put(playlist,userList);
-           creatorPlaylistMap.put(user,playlist);
-           List<Playlist>playlistList=userPlaylistMap.getOrDefault(user,new ArrayList<>());
-           playlistList.add(playlist);
-           userPlaylistMap.put(user,playlistList);
-           return playlist;
-       }
+    public Playlist createPlaylistOnLengthRange(String mobile, String title, int minLength, int maxLength) throws Exception {
+        //Same as createPlaylistOnLength, but takes every song whose length is between minLength and maxLength (both inclusive)
+        return journaled(()->{
+            User user=findUser(mobile);
+            List<Song>songList=new ArrayList<>();
+            if(minLength<=maxLength){
+                for(List<Song> bucket:songLengthIndex.subMap(minLength,true,maxLength,true).values()){
+                    songList.addAll(bucket);
+                }
+            }
+            return createPlaylist(user,title,songList);
+        },SpotifyJournal.CREATE_PLAYLIST_ON_LENGTH_RANGE,mobile,title,minLength,maxLength);
     }
 
     public Playlist createPlaylistOnName(String mobile, String title, List<String> songTitles) throws Exception {
         //Create a playlist with given title and add all songs having the given titles in the database to that playlist
         //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
         //If the user does not exist, throw "User does not exist" exception
-        User user=null;
-        for(User user1:users){
-            if(user1.getMobile().equals(mobile)){
-                user=user1;
-                break;
+        return journaled(()->{
+            User user=findUser(mobile);
+
+            //resolve each distinct requested title through the index instead of matching every song in the catalog
+            List<Song>songList=new ArrayList<>();
+            for(String songTitle:new LinkedHashSet<>(songTitles)){
+                List<Song> matches=songTitle==null ? null : songTitleIndex.get(songTitle);
+                if(matches!=null){
+                    songList.addAll(matches);
+                }
             }
+            return createPlaylist(user,title,songList);
+        },SpotifyJournal.CREATE_PLAYLIST_ON_NAME,mobile,title,songTitles);
+    }
+
+    public Playlist createPlaylistOnQuery(String mobile, String title, SongQuery query) throws Exception {
+        //Create a playlist with the songs matching every predicate of the query, see SongQueryPlanner
+        //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
+        //If the user does not exist, throw "User does not exist" exception
+        findUser(mobile);
+        return createPlaylistOnSongs(mobile,title,songQueries.run(query));
+    }
+
+    private Playlist createPlaylistOnSongs(String mobile, String title, List<Song> songList) throws Exception {
+        //the songs found are logged rather than the query, their likes may be different when the log is replayed
+        int[] songIds=new int[songList.size()];
+        for(int i=0;i<songIds.length;i++){
+            songIds[i]=songList.get(i).getId();
         }
-        if(user==null){
-            throw new Exception("User does not exist");
-        }
+        return journaled(()->createPlaylist(findUser(mobile),title,songList),SpotifyJournal.CREATE_PLAYLIST_ON_SONGS,mobile,title,songIds);
+    }
 
+    Playlist createPlaylist(User user, String title, List<Song> songList) {
+        //Registers a new playlist made by user, who also becomes its only listener
+        required(title,"title");
         Playlist playlist=new Playlist();
         playlist.setTitle(title);
-        playlists.add(playlist);
-        List<Song>songList=new ArrayList<>();
-
-        for(Song song:songs){
-            if(songTitles.contains(song.getTitle())){
-                songList.add(song);
-            }
-        }
-        playlistSongMap.put(playlist,songList);
-        List<User>userList=new ArrayList<>();
-        userList.add(user);
-        playlistListenerMap.put(playlist,userList);
-        creatorPlaylistMap.put(user,playlist);
-        List<Playlist>playlistList=userPlaylistMap.getOrDefault(user,new ArrayList<>());
-        playlistList.add(playlist);
-        userPlaylistMap.put(user,playlistList);
+        synchronized (playlists){
+            playlist.setId(playlists.size());
+            playlists.add(playlist);
+        }
+
+        int[] songIds=new int[songList.size()];
+        for(int i=0;i<songIds.length;i++){
+            songIds[i]=songList.get(i).getId();
+        }
+        playlistSongs.addAll(playlist.getId(),songIds,songIds.length);
+        IdBitSet members=new IdBitSet();
+        members.add(user.getId());
+        playlistMembers.put(playlist,members);
+        playlistListeners.add(playlist.getId(),user.getId());
+        playlistCreatorMap.put(playlist,user);
+        UserShard shard=shardOf(user);
+        shard.createdPlaylists.add(shard.position(user.getId()),playlist.getId());
+        shard.userPlaylists.add(shard.position(user.getId()),playlist.getId());
+        //publish the playlist by title only once its rows exist, findPlaylist may pick it up right away
+        playlistIndex.putIfAbsent(title,playlist);
+        viewChanged(0);
         return playlist;
     }
 
@@ -183,48 +893,49 @@ public class SpotifyRepository {
         //If the user does not exist, throw "User does not exist" exception
         //If the playlist does not exists, throw "Playlist does not exist" exception
         // Return the playlist after updating
-        User user = null;
-        for(User user1:users){
-            if(user1.getMobile()==mobile){
-                user=user1;
-                break;
-            }
-        }
-        if(user==null)
-            throw new Exception("User does not exist");
-
-        Playlist playlist = null;
-        for(Playlist playlist1:playlists){
-            if(playlist1.getTitle().equals(playlistTitle)){
-                playlist=playlist1;
-                break;
-            }
-        }
-        if(playlist==null)
-            throw new Exception("Playlist does not exist");
-
-
-        if(creatorPlaylistMap.containsKey(user))
+        return journaled(()->{
+            User user = findUser(mobile);
+            Playlist playlist = findPlaylist(playlistTitle);
+            //the creator of this playlist is one of its members, so this is a no-op for them
+            addListener(playlist,user);
             return playlist;
+        },SpotifyJournal.FIND_PLAYLIST,mobile,playlistTitle);
+    }
 
-        List<User> listener = playlistListenerMap.get(playlist);
-        for(User user1:listener){
-            if(user1==user)
-                return playlist;
-        }
+    public List<String> joinPlaylist(String playlistTitle, List<IngestRow> rows) {
+        //Bulk findPlaylist for the mobiles of rows, returns the error of every row (null when the user is a listener now)
+        return batch(rows,row->logged(()->{
+            addListener(findPlaylist(playlistTitle),findUser(row.getMobile()));
+            return null;
+        },SpotifyJournal.FIND_PLAYLIST,row.getMobile(),playlistTitle));
+    }
 
-        listener.add(user);
-        playlistListenerMap.put(playlist,listener);
+    public int listenerCount(String playlistTitle) throws Exception {
+        return playlistMembers.get(findPlaylist(playlistTitle)).size();
+    }
 
-        List<Playlist> playlists1 = userPlaylistMap.get(user);
-        if(playlists1 == null){
-            playlists1 = new ArrayList<>();
-        }
-        playlists1.add(playlist);
-        userPlaylistMap.put(user,playlists1);
+    public boolean isListener(String mobile, String playlistTitle) throws Exception {
+        return playlistMembers.get(findPlaylist(playlistTitle)).contains(findUser(mobile).getId());
+    }
 
+    private Playlist findPlaylist(String playlistTitle) throws Exception {
+        Playlist playlist=playlistTitle==null ? null : playlistIndex.get(playlistTitle);
+        if(playlist==null){
+            throw new Exception("Playlist does not exist");
+        }
         return playlist;
+    }
+
+    boolean addListener(Playlist playlist, User user) {
+        //joining twice is a no-op: only the call that sets the member bit appends to the listener rows
+        if(!playlistMembers.get(playlist).add(user.getId()))
+            return false;
+        playlistListeners.add(playlist.getId(),user.getId());
 
+        UserShard shard=shardOf(user);
+        shard.userPlaylists.add(shard.position(user.getId()),playlist.getId());
+        responses.changed(ResponseCache.LISTENERS);
+        return true;
     }
 
     public Song likeSong(String mobile, String songTitle) throws Exception {
@@ -234,86 +945,370 @@ public class SpotifyRepository {
         //If the user does not exist, throw "User does not exist" exception
         //If the song does not exist, throw "Song does not exist" exception
         //Return the song after updating
+        LikePipeline pipeline=replaying || mobile==null ? null : shard(mobile).likePipeline;
+        if(pipeline==null || !pipeline.reserve()){
+            return journaled(()->{
+                User user=findUser(mobile);
+                Song song=findSong(songTitle);
+                addLike(song,user);
+                return song;
+            },SpotifyJournal.LIKE_SONG,mobile,songTitle);
+        }
+        //queued: the returned song's counts may not include this like yet
+        boolean[] submitted=new boolean[1];
+        try{
+            return journaled(()->{
+                User user=findUser(mobile);
+                Song song=findSong(songTitle);
+                if(claimLike(song,user)){
+                    pipeline.submit(song,user);
+                    submitted[0]=true;
+                }
+                return song;
+            },SpotifyJournal.LIKE_SONG,mobile,songTitle);
+        }finally{
+            if(!submitted[0]){
+                pipeline.release();
+            }
+        }
+    }
 
-        User user=new User();
-        boolean userfound=false;
+    private User findUser(String mobile) throws Exception {
+        //a null mobile is a user that does not exist, not a failure to hash it
+        User user=mobile==null ? null : shard(mobile).userIndex.get(mobile);
+        if(user==null){
+            throw new Exception("User does not exist");
+        }
+        return user;
+    }
 
-        Song song=new Song();
-        boolean songfound=false;
+    private Song findSong(String songTitle) throws Exception {
+        //songs can share a title, the first one created wins like the old scan did
+        List<Song> matches=songTitle==null ? null : songTitleIndex.get(songTitle);
+        if(matches==null){
+            throw new Exception("Song does not exist");
+        }
+        return matches.get(0);
+    }
 
-        for(User u1:users){
-            if(u1.getMobile().equals(mobile)){
-                user=u1;
-                userfound=true;
-                break;
+    boolean addLike(Song song, User user) {
+        if(!claimLike(song,user)){
+            return false;
+        }
+        applyLike(song,user);
+        return true;
+    }
+
+    void unclaimLike(Song song, User user) {
+        //gives back a claimed like that could not be applied
+        IdBitSet likers=songLikers.get(song);
+        if(likers!=null){
+            likers.remove(user.getId());
+        }
+    }
+
+    boolean claimLike(Song song, User user) {
+        //the duplicate check: true only the first time this user likes this song
+        if(!songLikers.computeIfAbsent(song,s->new IdBitSet()).add(user.getId())){
+            SpotifyMetrics.DUPLICATE_LIKES.increment();
+            return false;
+        }
+        SpotifyMetrics.LIKES.increment();
+        return true;
+    }
+
+    void applyLike(Song song, User user) {
+        //applyLikes for a single claimed like, without the maps and lists a batch needs
+        songLikes.add(song.getId(),user.getId());
+        Artist artist=albumArtistMap.get(songAlbumMap.get(song));
+        moveLikes(song,artist,1);
+        recordRecommendation(song,user);
+        long now=System.currentTimeMillis();
+        recordTrending(song,1,now);
+        recordTrending(artist,1,now);
+        ReadView current=view.get();
+        likesApplied((current.reorderedBy(song) ? ReadView.SONGS : 0)|(current.reorderedBy(artist) ? ReadView.ARTISTS : 0));
+    }
+
+    void applyLikes(Map<Song, List<User>> likes) {
+        applyLikes(likes,null);
+    }
+
+    void applyLikes(Map<Song, List<User>> likes, Set<Song> counted) {
+        //Counts claimed likes: each song and each artist moves on its leaderboard once, however many likes it got.
+        //Each song goes into counted, if given, once its likers and count hold its likes, so a caller that sees
+        //this throw knows which likes took effect.
+        Map<Artist, Integer> artistLikes=new HashMap<>();
+        int[] userIds=new int[0];
+        for(Map.Entry<Song, List<User>> entry:likes.entrySet()){
+            Song song=entry.getKey();
+            List<User> likers=entry.getValue();
+            if(userIds.length<likers.size()){
+                userIds=new int[likers.size()];
             }
+            for(int i=0;i<likers.size();i++){
+                userIds[i]=likers.get(i).getId();
+            }
+            songLikes.addAll(song.getId(),userIds,likers.size());
+            moveLikes(song,null,likers.size());
+            if(counted!=null){
+                counted.add(song);
+            }
+            artistLikes.merge(albumArtistMap.get(songAlbumMap.get(song)),likers.size(),Integer::sum);
         }
-        if(!userfound){
-            throw new Exception("User does not exist");
+        for(Map.Entry<Artist, Integer> entry:artistLikes.entrySet()){
+            moveLikes(null,entry.getKey(),entry.getValue());
+        }
+        for(Map.Entry<Song, List<User>> entry:likes.entrySet()){
+            for(User user:entry.getValue()){
+                recordRecommendation(entry.getKey(),user);
+            }
+        }
+        long now=System.currentTimeMillis();
+        for(Map.Entry<Song, List<User>> entry:likes.entrySet()){
+            recordTrending(entry.getKey(),entry.getValue().size(),now);
+        }
+        for(Map.Entry<Artist, Integer> entry:artistLikes.entrySet()){
+            recordTrending(entry.getKey(),entry.getValue(),now);
         }
 
-        for(Song s1:songs){
-            if(s1.getTitle().equals(songTitle)){
-                song=s1;
-                songfound=true;
+        ReadView current=view.get();
+        int stale=0;
+        for(Song song:likes.keySet()){
+            if(current.reorderedBy(song)){
+                stale|=ReadView.SONGS;
                 break;
             }
         }
-        if(!songfound){
-            throw new Exception("Song does not exist");
+        for(Artist artist:artistLikes.keySet()){
+            if(current.reorderedBy(artist)){
+                stale|=ReadView.ARTISTS;
+                break;
+            }
         }
+        likesApplied(stale);
+    }
 
-        List<User>userList=songLikeMap.getOrDefault(song,new ArrayList<>());
-        if(!userList.contains(user)){
-            userList.add(user);
-            songLikeMap.put(song,userList);
-            song.setLikes(song.getLikes()+1);
+    private void moveLikes(Song song, Artist artist, int count) {
+        //adds count likes to the song and the artist that are given, re-ranking them unless bulk loading
+        if(song!=null){
+            if(bulkLoading){
+                song.addLikes(count);
+            }else{
+                songLeaderboard.addLikes(song,count);
+            }
+        }
+        if(artist!=null){
+            if(bulkLoading){
+                artist.addLikes(count);
+            }else{
+                artistLeaderboard.addLikes(artist,count);
+            }
+        }
+    }
 
-            Album album=new Album();
-            for(Album a1:albumSongMap.keySet()){
-                List<Song>s1=albumSongMap.get(a1);
-                if(s1.contains(song)){
-                    album=a1;
-                    break;
-                }
+    private void recordRecommendation(Song song, User user) {
+        //co-occurrence only depends on the order of each user's likes, so journaled likes count again on replay;
+        //the user's recent likes are copied into a per-thread buffer
+        if(recommender.getHistory()>0 && !restoringLikes){
+            int[] recent=recentBuffer.get();
+            if(recent.length<recommender.getHistory()){
+                recent=new int[recommender.getHistory()];
+                recentBuffer.set(recent);
             }
+            int count=shardOf(user).recordRecentLike(user,song.getId(),recommender.getHistory(),recent);
+            recommender.record(song,recent,count);
+        }
+    }
 
-            Artist artist=new Artist();
-            for(Artist a1:artistAlbumMap.keySet()){
-                List<Album>alb=artistAlbumMap.get(a1);
-                if(alb.contains(album)){
-                    artist=a1;
-                    break;
-                }
+    private void recordTrending(Song song, int likes, long now) {
+        //recovered likes carry no time, trending starts empty after a restart
+        if(!replaying){
+            for(TrendingBoard<Song> board:songTrending.values()){
+                board.record(song,likes,now);
+            }
+        }
+    }
 
+    private void recordTrending(Artist artist, int likes, long now) {
+        if(!replaying){
+            for(TrendingBoard<Artist> board:artistTrending.values()){
+                board.record(artist,likes,now);
             }
-            artist.setLikes(artist.getLikes()+1);
         }
-        return song;
+    }
+
+    private void likesApplied(int stale) {
+        //ranks past the read view move with every like
+        responses.changed(ResponseCache.RANKINGS);
+        //likes that move no song or artist up the published lists leave the read view as it is
+        if(stale!=0){
+            viewChanged(stale);
+        }
+    }
 
+    public IntAdjacency.Row<Song> playlistSongs(String playlistTitle) throws Exception {
+        //Listings hand out the live rows, callers page through them with JsonPage
+        return playlistSongs.row(findPlaylist(playlistTitle).getId(),songs::get);
     }
 
-    public String mostPopularArtist() {
-        int max=Integer.MIN_VALUE;
-        String name="";
-        for(Artist ar:artists){
-            if(ar.getLikes()>max){
-                max=ar.getLikes();
-                name=ar.getName();
+    public IntAdjacency.Row<User> playlistListeners(String playlistTitle) throws Exception {
+        return playlistListeners.row(findPlaylist(playlistTitle).getId(),this::user);
+    }
+
+    public IntAdjacency.Row<Song> albumSongs(String albumTitle) throws Exception {
+        Album album=albumTitle==null ? null : albumIndex.get(albumTitle);
+        if(album==null){
+            throw new Exception("Album does not exist");
+        }
+        return albumSongs.row(album.getId(),songs::get);
+    }
+
+    public IntAdjacency.Row<Album> artistAlbums(String artistName) throws Exception {
+        Artist artist=artistName==null ? null : artistIndex.get(artistName);
+        if(artist==null){
+            throw new Exception("Artist does not exist");
+        }
+        return artistAlbums.row(artist.getId(),albums::get);
+    }
+
+    public IntAdjacency.Row<Playlist> userPlaylists(String mobile) throws Exception {
+        User user=findUser(mobile);
+        UserShard shard=shardOf(user);
+        return shard.userPlaylists.row(shard.position(user.getId()),playlists::get);
+    }
+
+    public IntAdjacency.Row<Playlist> createdPlaylists(String mobile) throws Exception {
+        User user=findUser(mobile);
+        UserShard shard=shardOf(user);
+        return shard.createdPlaylists.row(shard.position(user.getId()),playlists::get);
+    }
+
+    public List<SearchHit> search(String query, String type, int limit) throws Exception {
+        //Prefix matches first, then typo-tolerant matches of the whole title, at most limit in all.
+        //type is song, album or artist; without one every type is searched, songs first.
+        if(query==null || query.trim().isEmpty()){
+            throw new Exception("Query is empty");
+        }
+        if(limit<1 || limit>MAX_SEARCH_LIMIT){
+            throw new Exception("Limit must be between 1 and "+MAX_SEARCH_LIMIT);
+        }
+        boolean songs=type==null || type.isEmpty() || type.equals("song");
+        boolean albums=type==null || type.isEmpty() || type.equals("album");
+        boolean artists=type==null || type.isEmpty() || type.equals("artist");
+        if(!songs && !albums && !artists){
+            throw new Exception("Unknown search type");
+        }
+        List<SearchHit> hits=new ArrayList<>();
+        Set<Object> found=Collections.newSetFromMap(new IdentityHashMap<>());
+        for(boolean prefix:new boolean[]{true,false}){
+            String match=prefix ? "prefix" : "fuzzy";
+            if(songs){
+                addHits(hits,found,songSearch,query,prefix,limit,"song",match,Song::getTitle);
+            }
+            if(albums){
+                addHits(hits,found,albumSearch,query,prefix,limit,"album",match,Album::getTitle);
+            }
+            if(artists){
+                addHits(hits,found,artistSearch,query,prefix,limit,"artist",match,Artist::getName);
             }
         }
-        return name;
+        return hits;
     }
 
-    public String mostPopularSong() {
-        int max=Integer.MIN_VALUE;;
-        String name="";
-        for(Song s1:songs){
-            if(s1.getLikes()>max){
-                max= s1.getLikes();
-                name=s1.getTitle();
+    private static <T> void addHits(List<SearchHit> hits, Set<Object> found, SearchIndex<T> index, String query, boolean prefix, int limit,
+                                    String type, String match, Function<T, String> title) {
+        if(hits.size()>=limit){
+            return;
+        }
+        //the fuzzy pass asks for the full limit, some of its results may already have been found as prefixes
+        for(T value:prefix ? index.prefix(query,limit-hits.size()) : index.fuzzy(query,limit)){
+            if(hits.size()>=limit){
+                return;
             }
+            if(found.add(value)){
+                hits.add(new SearchHit(type,title.apply(value),match));
+            }
+        }
+    }
+
+    public String mostPopularArtist() {
+        List<String> names=view.get().getTopArtists();
+        return names.isEmpty() ? "" : names.get(0);
+    }
+
+    public String mostPopularSong() {
+        List<String> titles=view.get().getTopSongs();
+        return titles.isEmpty() ? "" : titles.get(0);
+    }
+
+    public List<String> mostPopularArtists(int k) {
+        //served from the read view unless k goes past what it keeps; at most MAX_POPULAR_K names
+        k=Math.min(k,MAX_POPULAR_K);
+        ReadView current=view.get();
+        if(k<=VIEW_SIZE){
+            List<String> names=current.getTopArtists();
+            return names.subList(0,Math.max(0,Math.min(k,names.size())));
+        }
+        List<String> names=new ArrayList<>();
+        for(Artist artist:artistLeaderboard.top(k)){
+            names.add(artist.getName());
+        }
+        return names;
+    }
+
+    public List<String> trendingSongs(String window, int k) throws Exception {
+        //Titles of the k songs with the most recent likes in the window, as of the last refresh
+        return trending(songTrending,window,k);
+    }
+
+    public List<String> trendingArtists(String window, int k) throws Exception {
+        return trending(artistTrending,window,k);
+    }
+
+    private static List<String> trending(Map<String, ? extends TrendingBoard<?>> boards, String window, int k) throws Exception {
+        TrendingBoard<?> board=window==null || window.isEmpty() ? boards.values().iterator().next() : boards.get(window);
+        if(board==null){
+            throw new Exception("Unknown trending window, use one of "+boards.keySet());
+        }
+        if(k<1 || k>board.getTopK()){
+            throw new Exception("k must be between 1 and "+board.getTopK());
+        }
+        return board.top(k);
+    }
+
+    public List<String> recommend(String mobile, int k) throws Exception {
+        //Titles of up to k songs the user hasn't liked, see Recommender.recommend
+        User user=findUser(mobile);
+        checkNeighborCount(k);
+        int[] recent=recommender.getHistory()>0 ? shardOf(user).recentLikes(user,recommender.getHistory()) : new int[0];
+        return recommender.recommend(user,recent,k);
+    }
+
+    public List<String> similarSongs(String songTitle, int k) throws Exception {
+        //Titles of up to k songs most often liked together with the song, as of the last refresh
+        Song song=findSong(songTitle);
+        checkNeighborCount(k);
+        return recommender.similar(song,k);
+    }
+
+    private void checkNeighborCount(int k) throws Exception {
+        if(k<1 || k>recommender.getNeighborCount()){
+            throw new Exception("k must be between 1 and "+recommender.getNeighborCount());
+        }
+    }
+
+    public List<String> mostPopularSongs(int k) {
+        k=Math.min(k,MAX_POPULAR_K);
+        ReadView current=view.get();
+        if(k<=VIEW_SIZE){
+            List<String> titles=current.getTopSongs();
+            return titles.subList(0,Math.max(0,Math.min(k,titles.size())));
+        }
+        List<String> titles=new ArrayList<>();
+        for(Song song:songLeaderboard.top(k)){
+            titles.add(song.getTitle());
         }
-        return name;
+        return titles;
     }
 }
@@ -1,53 +1,269 @@
 package com.driver;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.function.Function;
+
+import com.driver.SpotifyMetrics.Operation;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Service
-public class SpotifyService {
+public class SpotifyService implements Closeable {
 
     //Auto-wire will not work in this case, no need to change this and add autowire
 
-    SpotifyRepository spotifyRepository = new SpotifyRepository();
+    SpotifyRepository spotifyRepository = SpotifyRepository.open();
+
+    //rows applied per repository batch by the bulk upload endpoints
+    private static final int INGEST_BATCH_SIZE = SpotifySettings.getInt("spotify.ingest.batch-size", 1000);
 
     public User createUser(String name, String mobile){
-        return spotifyRepository.createUser(name,mobile);
+        return SpotifyMetrics.time(Operation.CREATE_USER, () -> spotifyRepository.createUser(name,mobile));
     }
 
     public Artist createArtist(String name) {
-       return spotifyRepository.createArtist(name);
+       return SpotifyMetrics.time(Operation.CREATE_ARTIST, () -> spotifyRepository.createArtist(name));
     }
 
     public Album createAlbum(String title, String artistName) {
-        return spotifyRepository.createAlbum(title, artistName);
+        return SpotifyMetrics.time(Operation.CREATE_ALBUM, () -> spotifyRepository.createAlbum(title, artistName));
     }
 
     public Song createSong(String title, String albumName, int length) throws Exception {
-        return spotifyRepository.createSong(title,albumName,length);
+        return SpotifyMetrics.time(Operation.CREATE_SONG, () -> spotifyRepository.createSong(title,albumName,length));
+    }
+
+    public BatchResult createUsers(InputStream body, String contentType) throws IOException {
+        return SpotifyMetrics.time(Operation.CREATE_USERS, () -> ingest(body, contentType, row -> row.getMobile() == null ? "Missing field mobile" : null, spotifyRepository::createUsers));
+    }
+
+    public BatchResult createAlbums(InputStream body, String contentType) throws IOException {
+        return SpotifyMetrics.time(Operation.CREATE_ALBUMS, () -> ingest(body, contentType, row -> row.getTitle() == null ? "Missing field title"
+                : row.getArtistName() == null ? "Missing field artistName" : null, spotifyRepository::createAlbums));
+    }
+
+    public BatchResult createSongs(InputStream body, String contentType) throws IOException {
+        return SpotifyMetrics.time(Operation.CREATE_SONGS, () -> ingest(body, contentType, row -> row.getTitle() == null ? "Missing field title"
+                : row.getAlbumName() == null ? "Missing field albumName"
+                : row.getLength() == null ? "Missing field length" : null, spotifyRepository::createSongs));
+    }
+
+    public BatchResult joinPlaylist(String playlistTitle, InputStream body, String contentType) throws IOException {
+        return SpotifyMetrics.time(Operation.JOIN_PLAYLIST, () -> ingest(body, contentType, row -> row.getMobile() == null ? "Missing field mobile" : null,
+                rows -> spotifyRepository.joinPlaylist(playlistTitle, rows)));
+    }
+
+    public int playlistListenerCount(String playlistTitle) throws Exception {
+        return SpotifyMetrics.time(Operation.PLAYLIST_LISTENER_COUNT, () -> cached(ResponseCache.LISTENERS, ResponseCache.key(Operation.PLAYLIST_LISTENER_COUNT, playlistTitle),
+                () -> spotifyRepository.listenerCount(playlistTitle)));
+    }
+
+    private BatchResult ingest(InputStream body, String contentType, Function<IngestRow, String> validator, Function<List<IngestRow>, List<String>> writer) throws IOException {
+        //Streams the body, applying every INGEST_BATCH_SIZE valid rows as one repository batch
+        long start = System.nanoTime();
+        BatchResult result = new BatchResult();
+        List<IngestRow> batch = new ArrayList<>(INGEST_BATCH_SIZE);
+        try(IngestReader reader = new IngestReader(body, contentType)){
+            while(true){
+                IngestRow row;
+                try{
+                    row = reader.next();
+                }catch(IngestReader.RowException e){
+                    result.addError(e.getRow().getLine(), e.getMessage());
+                    continue;
+                }
+                if(row == null){
+                    break;
+                }
+                String error = validator.apply(row);
+                if(error != null){
+                    result.addError(row.getLine(), error);
+                    continue;
+                }
+                batch.add(row);
+                if(batch.size() == INGEST_BATCH_SIZE){
+                    applyBatch(batch, writer, result);
+                }
+            }
+            applyBatch(batch, writer, result);
+        }
+        result.finish(System.nanoTime() - start);
+        return result;
+    }
+
+    private void applyBatch(List<IngestRow> batch, Function<List<IngestRow>, List<String>> writer, BatchResult result) {
+        List<String> errors = writer.apply(batch);
+        for(int i = 0; i < batch.size(); i++){
+            if(errors.get(i) == null){
+                result.addSuccess();
+            }else{
+                result.addError(batch.get(i).getLine(), errors.get(i));
+            }
+        }
+        batch.clear();
     }
 
     public Playlist createPlaylistOnLength(String mobile, String title, int length) throws Exception {
-        return spotifyRepository.createPlaylistOnLength(mobile, title, length);
+        return SpotifyMetrics.time(Operation.CREATE_PLAYLIST_ON_LENGTH, () -> spotifyRepository.createPlaylistOnLength(mobile, title, length));
+    }
+
+    public Playlist createPlaylistOnLengthRange(String mobile, String title, int minLength, int maxLength) throws Exception {
+        return SpotifyMetrics.time(Operation.CREATE_PLAYLIST_ON_LENGTH_RANGE, () -> spotifyRepository.createPlaylistOnLengthRange(mobile, title, minLength, maxLength));
     }
 
     public Playlist createPlaylistOnName(String mobile, String title, List<String> songTitles) throws Exception {
-        return spotifyRepository.createPlaylistOnName(mobile, title, songTitles);
+        return SpotifyMetrics.time(Operation.CREATE_PLAYLIST_ON_NAME, () -> spotifyRepository.createPlaylistOnName(mobile, title, songTitles));
+    }
+
+    public Playlist createPlaylistOnQuery(String mobile, String title, SongQuery query) throws Exception {
+        return SpotifyMetrics.time(Operation.CREATE_PLAYLIST_ON_QUERY, () -> spotifyRepository.createPlaylistOnQuery(mobile, title, query));
     }
 
     public Playlist findPlaylist(String mobile, String playlistTitle) throws Exception {
-        return spotifyRepository.findPlaylist(mobile,playlistTitle);
+        return SpotifyMetrics.time(Operation.FIND_PLAYLIST, () -> spotifyRepository.findPlaylist(mobile,playlistTitle));
     }
 
     public Song likeSong(String mobile, String songTitle) throws Exception {
-        return spotifyRepository.likeSong(mobile, songTitle);
+        return SpotifyMetrics.time(Operation.LIKE_SONG, () -> spotifyRepository.likeSong(mobile, songTitle));
     }
 
+    //Reads below go through the repository's response cache; the region names what a write must change to make
+    //the answer stale. The popular lists up to the read view's size only change when the view is republished.
+
     public String mostPopularArtist() {
-        return spotifyRepository.mostPopularArtist();
+        return SpotifyMetrics.time(Operation.MOST_POPULAR_ARTIST, () -> cached(ResponseCache.ARTISTS, ResponseCache.key(Operation.MOST_POPULAR_ARTIST),
+                () -> spotifyRepository.mostPopularArtist()));
     }
 
     public String mostPopularSong() {
-        return spotifyRepository.mostPopularSong();
+        return SpotifyMetrics.time(Operation.MOST_POPULAR_SONG, () -> cached(ResponseCache.SONGS, ResponseCache.key(Operation.MOST_POPULAR_SONG),
+                () -> spotifyRepository.mostPopularSong()));
+    }
+
+    public List<String> mostPopularArtists(int requested) {
+        //k past SpotifyRepository.MAX_POPULAR_K is cut to it before the cache key, so every larger k shares one entry
+        int k = Math.min(requested, SpotifyRepository.MAX_POPULAR_K);
+        int region = k <= SpotifyRepository.VIEW_SIZE ? ResponseCache.ARTISTS : ResponseCache.RANKINGS;
+        return SpotifyMetrics.time(Operation.MOST_POPULAR_ARTISTS, () -> cached(region, ResponseCache.key(Operation.MOST_POPULAR_ARTISTS, k),
+                () -> spotifyRepository.mostPopularArtists(k)));
+    }
+
+    public List<String> mostPopularSongs(int requested) {
+        int k = Math.min(requested, SpotifyRepository.MAX_POPULAR_K);
+        int region = k <= SpotifyRepository.VIEW_SIZE ? ResponseCache.SONGS : ResponseCache.RANKINGS;
+        return SpotifyMetrics.time(Operation.MOST_POPULAR_SONGS, () -> cached(region, ResponseCache.key(Operation.MOST_POPULAR_SONGS, k),
+                () -> spotifyRepository.mostPopularSongs(k)));
+    }
+
+    public List<String> trendingSongs(String window, int k) throws Exception {
+        return SpotifyMetrics.time(Operation.TRENDING_SONGS, () -> cached(ResponseCache.TRENDING, ResponseCache.key(Operation.TRENDING_SONGS, window, k),
+                () -> spotifyRepository.trendingSongs(window, k)));
+    }
+
+    public List<String> trendingArtists(String window, int k) throws Exception {
+        return SpotifyMetrics.time(Operation.TRENDING_ARTISTS, () -> cached(ResponseCache.TRENDING, ResponseCache.key(Operation.TRENDING_ARTISTS, window, k),
+                () -> spotifyRepository.trendingArtists(window, k)));
+    }
+
+    public List<String> recommend(String mobile, int k) throws Exception {
+        return SpotifyMetrics.time(Operation.RECOMMEND, () -> spotifyRepository.recommend(mobile, k));
+    }
+
+    public List<String> similarSongs(String songTitle, int k) throws Exception {
+        return SpotifyMetrics.time(Operation.SIMILAR_SONGS, () -> spotifyRepository.similarSongs(songTitle, k));
+    }
+
+    public ReadView catalogStats() {
+        return SpotifyMetrics.time(Operation.CATALOG_STATS, () -> spotifyRepository.readView());
+    }
+
+    public List<SearchHit> search(String query, String type, int limit) throws Exception {
+        return SpotifyMetrics.time(Operation.SEARCH, () -> cached(ResponseCache.CATALOG, ResponseCache.key(Operation.SEARCH, query, type, limit),
+                () -> spotifyRepository.search(query, type, limit)));
+    }
+
+    private <T, E extends Exception> T cached(int regions, List<Object> key, SpotifyMetrics.Call<T, E> call) throws E {
+        return spotifyRepository.responses.get(regions, key, call);
+    }
+
+    public StreamingResponseBody export() {
+        //only starting the export is timed, the dump is written as the response is sent
+        return SpotifyMetrics.time(Operation.EXPORT, () -> out -> spotifyRepository.export(out));
+    }
+
+    public void importDump(InputStream body) throws IOException {
+        SpotifyMetrics.time(Operation.IMPORT, () -> {
+            spotifyRepository.load(body);
+            return null;
+        });
+    }
+
+    //Listings: only finding the list is timed, the page itself is written after the call returns
+
+    public StreamingResponseBody playlistSongs(String playlistTitle, String cursor, int limit) throws Exception {
+        return SpotifyMetrics.time(Operation.PLAYLIST_SONGS, () -> JsonPage.of(spotifyRepository.playlistSongs(playlistTitle), cursor, limit, SpotifyService::writeSong));
+    }
+
+    public StreamingResponseBody playlistListeners(String playlistTitle, String cursor, int limit) throws Exception {
+        return SpotifyMetrics.time(Operation.PLAYLIST_LISTENERS, () -> JsonPage.of(spotifyRepository.playlistListeners(playlistTitle), cursor, limit, SpotifyService::writeUser));
+    }
+
+    public StreamingResponseBody albumSongs(String albumTitle, String cursor, int limit) throws Exception {
+        return SpotifyMetrics.time(Operation.ALBUM_SONGS, () -> JsonPage.of(spotifyRepository.albumSongs(albumTitle), cursor, limit, SpotifyService::writeSong));
+    }
+
+    public StreamingResponseBody artistAlbums(String artistName, String cursor, int limit) throws Exception {
+        return SpotifyMetrics.time(Operation.ARTIST_ALBUMS, () -> JsonPage.of(spotifyRepository.artistAlbums(artistName), cursor, limit, SpotifyService::writeAlbum));
+    }
+
+    public StreamingResponseBody userPlaylists(String mobile, String cursor, int limit) throws Exception {
+        return SpotifyMetrics.time(Operation.USER_PLAYLISTS, () -> JsonPage.of(spotifyRepository.userPlaylists(mobile), cursor, limit, SpotifyService::writePlaylist));
+    }
+
+    public StreamingResponseBody createdPlaylists(String mobile, String cursor, int limit) throws Exception {
+        return SpotifyMetrics.time(Operation.CREATED_PLAYLISTS, () -> JsonPage.of(spotifyRepository.createdPlaylists(mobile), cursor, limit, SpotifyService::writePlaylist));
+    }
+
+    @Override
+    public void close() throws IOException {
+        //closes the repository this service opened, see SpotifyRepository.close; Spring calls it on shutdown
+        spotifyRepository.close();
+    }
+
+    private static void writeSong(JsonGenerator json, Song song) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("title", song.getTitle());
+        json.writeNumberField("length", song.getLength());
+        json.writeNumberField("likes", song.getLikes());
+        json.writeEndObject();
+    }
+
+    private static void writeUser(JsonGenerator json, User user) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("name", user.getName());
+        json.writeStringField("mobile", user.getMobile());
+        json.writeEndObject();
+    }
+
+    private static void writeAlbum(JsonGenerator json, Album album) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("title", album.getTitle());
+        if(album.getReleaseDate() == null){
+            json.writeNullField("releaseDate");
+        }else{
+            json.writeNumberField("releaseDate", album.getReleaseDate().getTime());
+        }
+        json.writeEndObject();
+    }
+
+    private static void writePlaylist(JsonGenerator json, Playlist playlist) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("title", playlist.getTitle());
+        json.writeEndObject();
     }
 }
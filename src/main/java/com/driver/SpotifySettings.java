@@ -0,0 +1,34 @@
+package com.driver;
+
+public class SpotifySettings {
+    //The service and repository are created with new rather than by Spring, so their settings come from
+    //JVM system properties (-Dspotify.journal.dir=/data) with the matching environment variable
+    //(SPOTIFY_JOURNAL_DIR) as a fallback.
+
+    private SpotifySettings(){
+
+    }
+
+    public static String get(String key, String defaultValue){
+        String value=System.getProperty(key);
+        if(value==null){
+            value=System.getenv(key.toUpperCase().replace('.','_').replace('-','_'));
+        }
+        return value==null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public static long getLong(String key, long defaultValue){
+        String value=get(key,null);
+        return value==null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public static int getInt(String key, int defaultValue){
+        String value=get(key,null);
+        return value==null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue){
+        String value=get(key,null);
+        return value==null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,250 @@
+package com.driver;
+
+import java.io.*;
+import java.util.*;
+
+public class SpotifySnapshot {
+    //Compact binary image of the repository. Entities are written in creation order and refer to each
+    //other by position, relationships are rebuilt on load through the repository's own add methods so
+    //every index comes back with them.
+    //Layout: magic, version, first journal segment to replay, then users, artists, albums, songs,
+    //playlists (songs and listeners, creator first), likes and, since version 2, the recommender's state:
+    //its pair count sketch, co-occurrence rows and each user's recent likes. Likes are grouped by song here,
+    //so recording them again on load would pair songs no user liked one after the other.
+
+    private static final int MAGIC = 0x53505459;
+    private static final int VERSION = 2;
+    //sketch counters are saved in chunks of this many, all-zero chunks are left out
+    static final int SKETCH_CHUNK = 4096;
+
+    private SpotifySnapshot(){
+
+    }
+
+    public static void write(SpotifyRepository repository, DataOutputStream out, int firstSegment) throws IOException {
+        //the caller must keep mutations out while this runs
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(firstSegment);
+
+        //users are referred to by position rather than id, ids depend on how many shards the repository has
+        List<User> users=repository.allUsers();
+        Map<Integer, Integer> userPositions=new HashMap<>();
+        out.writeInt(users.size());
+        for(User user:users){
+            userPositions.put(user.getId(),userPositions.size());
+            SpotifyJournal.writeString(out,user.getName());
+            SpotifyJournal.writeString(out,user.getMobile());
+        }
+
+        List<Artist> artists=new ArrayList<>(repository.artists);
+        out.writeInt(artists.size());
+        for(Artist artist:artists){
+            SpotifyJournal.writeString(out,artist.getName());
+        }
+
+        List<Album> albums=new ArrayList<>(repository.albums);
+        Map<Album, Integer> albumPositions=new IdentityHashMap<>();
+        out.writeInt(albums.size());
+        for(Album album:albums){
+            albumPositions.put(album,albumPositions.size());
+            SpotifyJournal.writeString(out,album.getTitle());
+            out.writeLong(album.getReleaseDate()==null ? -1 : album.getReleaseDate().getTime());
+            out.writeInt(repository.albumArtistMap.get(album).getId());
+        }
+
+        List<Song> songs=new ArrayList<>(repository.songs);
+        out.writeInt(songs.size());
+        for(Song song:songs){
+            SpotifyJournal.writeString(out,song.getTitle());
+            out.writeInt(song.getLength());
+            out.writeInt(albumPositions.get(repository.songAlbumMap.get(song)));
+        }
+
+        List<Playlist> playlists=new ArrayList<>(repository.playlists);
+        out.writeInt(playlists.size());
+        for(Playlist playlist:playlists){
+            SpotifyJournal.writeString(out,playlist.getTitle());
+            writeIds(out,repository.playlistSongs.get(playlist.getId()));
+            writeIds(out,positions(repository.playlistListeners.get(playlist.getId()),userPositions));
+        }
+
+        int likedSongs=0;
+        for(Song song:songs){
+            if(repository.songLikes.size(song.getId())>0){
+                likedSongs++;
+            }
+        }
+        out.writeInt(likedSongs);
+        for(Song song:songs){
+            int[] likers=repository.songLikes.get(song.getId());
+            if(likers.length==0){
+                continue;
+            }
+            out.writeInt(song.getId());
+            writeIds(out,positions(likers,userPositions));
+        }
+
+        Recommender recommender=repository.recommender;
+        Map<Integer, int[]> chunks=new LinkedHashMap<>();
+        for(int from=0;from<recommender.pairCountSize();from+=SKETCH_CHUNK){
+            int[] counts=recommender.pairCounts(from,Math.min(from+SKETCH_CHUNK,recommender.pairCountSize()));
+            if(!isZero(counts)){
+                chunks.put(from,counts);
+            }
+        }
+        out.writeInt(recommender.pairCountSize());
+        out.writeInt(chunks.size());
+        for(Map.Entry<Integer, int[]> chunk:chunks.entrySet()){
+            out.writeInt(chunk.getKey());
+            writeIds(out,chunk.getValue());
+        }
+        List<Song> rowSongs=recommender.rowSongs();
+        out.writeInt(rowSongs.size());
+        for(Song song:rowSongs){
+            int[][] entries=recommender.rowEntries(song);
+            out.writeInt(song.getId());
+            writeIds(out,entries[0]);
+            writeIds(out,entries[1]);
+        }
+        Map<Integer, int[]> recent=new LinkedHashMap<>();
+        if(recommender.getHistory()>0){
+            for(User user:users){
+                int[] songIds=repository.shardOf(user).recentLikes(user,recommender.getHistory());
+                if(songIds.length>0){
+                    recent.put(userPositions.get(user.getId()),songIds);
+                }
+            }
+        }
+        out.writeInt(recent.size());
+        for(Map.Entry<Integer, int[]> songIds:recent.entrySet()){
+            out.writeInt(songIds.getKey());
+            writeIds(out,songIds.getValue());
+        }
+        out.flush();
+    }
+
+    public static int read(DataInputStream in, SpotifyRepository repository) throws IOException {
+        //loads into an empty repository and returns the first journal segment that still has to be replayed
+        if(in.readInt()!=MAGIC){
+            throw new IOException("Not a repository snapshot");
+        }
+        int version=in.readInt();
+        if(version<1 || version>VERSION){
+            throw new IOException("Unsupported snapshot version "+version);
+        }
+        int firstSegment=in.readInt();
+
+        int count=in.readInt();
+        List<User> users=new ArrayList<>(count);
+        for(int i=0;i<count;i++){
+            users.add(repository.addUser(SpotifyJournal.readString(in),SpotifyJournal.readString(in)));
+        }
+
+        count=in.readInt();
+        for(int i=0;i<count;i++){
+            repository.addArtist(SpotifyJournal.readString(in));
+        }
+
+        count=in.readInt();
+        List<Album> albums=new ArrayList<>(count);
+        for(int i=0;i<count;i++){
+            String title=SpotifyJournal.readString(in);
+            long releaseDate=in.readLong();
+            Artist artist=repository.artists.get(in.readInt());
+            albums.add(repository.addAlbum(title,artist,releaseDate<0 ? null : new Date(releaseDate)));
+        }
+
+        count=in.readInt();
+        for(int i=0;i<count;i++){
+            String title=SpotifyJournal.readString(in);
+            int length=in.readInt();
+            repository.addSong(title,length,albums.get(in.readInt()));
+        }
+
+        count=in.readInt();
+        for(int i=0;i<count;i++){
+            String title=SpotifyJournal.readString(in);
+            int songCount=in.readInt();
+            List<Song> playlistSongs=new ArrayList<>(songCount);
+            for(int j=0;j<songCount;j++){
+                playlistSongs.add(repository.songs.get(in.readInt()));
+            }
+            int listenerCount=in.readInt();
+            Playlist playlist=null;
+            for(int j=0;j<listenerCount;j++){
+                User user=users.get(in.readInt());
+                if(playlist==null){
+                    playlist=repository.createPlaylist(user,title,playlistSongs);
+                }else{
+                    repository.addListener(playlist,user);
+                }
+            }
+        }
+
+        count=in.readInt();
+        for(int i=0;i<count;i++){
+            Song song=repository.songs.get(in.readInt());
+            int likers=in.readInt();
+            for(int j=0;j<likers;j++){
+                repository.addLike(song,users.get(in.readInt()));
+            }
+        }
+
+        //a version 1 snapshot has no recommender state, recommendations start over from the journaled likes
+        if(version>=2){
+            Recommender recommender=repository.recommender;
+            int size=in.readInt();
+            count=in.readInt();
+            for(int i=0;i<count;i++){
+                int from=in.readInt();
+                recommender.restorePairCounts(size,from,readIds(in));
+            }
+            count=in.readInt();
+            for(int i=0;i<count;i++){
+                Song song=repository.songs.get(in.readInt());
+                recommender.restoreRow(song,readIds(in),readIds(in));
+            }
+            count=in.readInt();
+            for(int i=0;i<count;i++){
+                User user=users.get(in.readInt());
+                int[] songIds=readIds(in);
+                if(recommender.getHistory()>0){
+                    repository.shardOf(user).restoreRecentLikes(user,songIds,recommender.getHistory());
+                }
+            }
+        }
+        return firstSegment;
+    }
+
+    private static int[] positions(int[] userIds, Map<Integer, Integer> userPositions) {
+        for(int i=0;i<userIds.length;i++){
+            userIds[i]=userPositions.get(userIds[i]);
+        }
+        return userIds;
+    }
+
+    static boolean isZero(int[] counts) {
+        for(int count:counts){
+            if(count!=0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] readIds(DataInputStream in) throws IOException {
+        int[] ids=new int[in.readInt()];
+        for(int i=0;i<ids.length;i++){
+            ids[i]=in.readInt();
+        }
+        return ids;
+    }
+
+    private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for(int id:ids){
+            out.writeInt(id);
+        }
+    }
+}
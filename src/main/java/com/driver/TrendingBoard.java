@@ -0,0 +1,186 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+public class TrendingBoard<T> {
+    //"Trending now" for one entity type and one window: a like's weight decays exponentially with the window
+    //as its mean lifetime, so an entry's score approximates its likes over the last window.
+    //Scores use forward decay: a like at time t adds exp((t - landmark) / window) instead of shrinking every
+    //older score, so stored scores never change as time passes and their order is the order of the decayed
+    //scores. refresh, run by the repository's scheduler, merges the entries liked since the last refresh into
+    //the published top list; reads only return that list. Every REBASE_AT windows the landmark moves up and
+    //all scores are scaled down, which also drops entries that decayed below MIN_SCORE and enforces maxEntries.
+
+    private static final double REBASE_AT = 20;
+    private static final double MIN_SCORE = 0.05;
+
+    private final String window;
+    private final long windowMillis;
+    private final int topK;
+    private final int maxEntries;
+    private final ToIntFunction<T> id;
+    private final Function<T, String> name;
+
+    private final ConcurrentHashMap<T, DoubleAdder> scores;
+    //entries liked since the last refresh
+    private final Set<T> dirty;
+    //record holds the read lock, rebase the write lock, so no like is scaled with the wrong landmark
+    private final StampedLock lock;
+    private long landmark;
+
+    //guarded by this
+    private List<T> topEntries;
+    private volatile List<String> top;
+
+    public TrendingBoard(String window, int topK, int maxEntries, ToIntFunction<T> id, Function<T, String> name, long now){
+        this.window = window;
+        this.windowMillis = parseWindow(window);
+        this.topK = topK;
+        this.maxEntries = maxEntries;
+        this.id = id;
+        this.name = name;
+        this.scores = new ConcurrentHashMap<>();
+        this.dirty = ConcurrentHashMap.newKeySet();
+        this.lock = new StampedLock();
+        this.landmark = now;
+        this.topEntries = Collections.emptyList();
+        this.top = Collections.emptyList();
+    }
+
+    public static long parseWindow(String window){
+        //a number followed by s, m, h or d, e.g. 15m or 24h
+        String value=window.trim();
+        long unit;
+        switch(value.isEmpty() ? ' ' : value.charAt(value.length()-1)){
+            case 's':
+                unit=1000L;
+                break;
+            case 'm':
+                unit=60 * 1000L;
+                break;
+            case 'h':
+                unit=60 * 60 * 1000L;
+                break;
+            case 'd':
+                unit=24 * 60 * 60 * 1000L;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid trending window "+window);
+        }
+        long amount=Long.parseLong(value.substring(0,value.length()-1));
+        if(amount<=0){
+            throw new IllegalArgumentException("Invalid trending window "+window);
+        }
+        return amount * unit;
+    }
+
+    public void record(T entry, int likes, long now){
+        long stamp=lock.readLock();
+        try{
+            scores.computeIfAbsent(entry,e->new DoubleAdder()).add(likes * Math.exp((double) (now-landmark) / windowMillis));
+        }finally{
+            lock.unlockRead(stamp);
+        }
+        dirty.add(entry);
+    }
+
+    public synchronized void refresh(long now){
+        boolean rebase=scores.size()>maxEntries || (double) (now-landmark) / windowMillis>REBASE_AT;
+        if(rebase){
+            rebase(now);
+        }
+        //scores only grow, so an entry that was not liked since the last refresh cannot overtake one that was
+        //listed: the new top is among the listed entries and the dirty ones
+        Collection<T> candidates;
+        if(rebase){
+            dirty.clear();
+            candidates=scores.keySet();
+        }else{
+            candidates=Collections.newSetFromMap(new IdentityHashMap<>());
+            candidates.addAll(topEntries);
+            Iterator<T> changed=dirty.iterator();
+            while(changed.hasNext()){
+                candidates.add(changed.next());
+                changed.remove();
+            }
+        }
+        //listed entries that decayed below MIN_SCORE leave the list even when nothing else was liked
+        List<T> entries=best(candidates,topK,MIN_SCORE * Math.exp((double) (now-landmark) / windowMillis));
+        List<String> names=new ArrayList<>(entries.size());
+        for(T entry:entries){
+            names.add(name.apply(entry));
+        }
+        topEntries=entries;
+        top=Collections.unmodifiableList(names);
+    }
+
+    private void rebase(long now){
+        long stamp=lock.writeLock();
+        try{
+            double factor=Math.exp(-(double) (now-landmark) / windowMillis);
+            Iterator<DoubleAdder> values=scores.values().iterator();
+            while(values.hasNext()){
+                DoubleAdder score=values.next();
+                double scaled=score.sum() * factor;
+                if(scaled<MIN_SCORE){
+                    values.remove();
+                }else{
+                    score.reset();
+                    score.add(scaled);
+                }
+            }
+            landmark=now;
+            if(scores.size()>maxEntries){
+                Set<T> kept=Collections.newSetFromMap(new IdentityHashMap<>());
+                kept.addAll(best(scores.keySet(),maxEntries,0));
+                scores.keySet().retainAll(kept);
+            }
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private List<T> best(Collection<T> candidates, int k, double floor){
+        //the k highest scores of at least floor, ties to the entry created first like the leaderboards
+        Map<T, Double> snapshot=new IdentityHashMap<>();
+        Comparator<T> order=Comparator.<T>comparingDouble(snapshot::get).reversed().thenComparingInt(id);
+        PriorityQueue<T> heap=new PriorityQueue<>(order.reversed());
+        for(T entry:candidates){
+            DoubleAdder score=scores.get(entry);
+            double value=score==null ? 0 : score.sum();
+            if(score==null || value<floor){
+                continue;
+            }
+            snapshot.put(entry,value);
+            heap.add(entry);
+            if(heap.size()>k){
+                snapshot.remove(heap.poll());
+            }
+        }
+        List<T> result=new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+
+    public List<String> top(int k){
+        List<String> current=top;
+        return current.subList(0,Math.min(k,current.size()));
+    }
+
+    public String getWindow(){
+        return window;
+    }
+
+    public int getTopK(){
+        return topK;
+    }
+
+    public int size(){
+        return scores.size();
+    }
+}
@@ -5,6 +5,7 @@ import java.util.List;
 public class User {
     private String name;
     private String mobile;
+    private int id;
 
     public User() {}
 
@@ -28,4 +29,12 @@ public class User {
     public void setMobile(String mobile) {
         this.mobile = mobile;
     }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
 }
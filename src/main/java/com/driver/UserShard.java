@@ -0,0 +1,111 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class UserShard {
+    //The users whose mobile hashes to one shard, and the state that only calls made by those users touch.
+    //Every shard hands out ids under its own lock: the n-th user of shard s out of count gets id n * count + s,
+    //so ids stay unique and close to dense across shards without a shared counter.
+    private final int index;
+    private final int count;
+
+    public final List<User> users;
+    public final ConcurrentHashMap<String, User> userIndex;
+    //rows keyed by the user's position in this shard, not by id: playlists the user created, and every
+    //playlist the user listens to, created ones included
+    public final IntAdjacency createdPlaylists;
+    public final IntAdjacency userPlaylists;
+    //the last songs each user liked, see recordRecentLike
+    public final ConcurrentHashMap<User, int[]> recentLikes;
+
+    //Only set when likes are applied asynchronously, each shard queues the likes of its own users
+    LikePipeline likePipeline;
+
+    public UserShard(int index, int count){
+        this.index = index;
+        this.count = count;
+        this.users = Collections.synchronizedList(new ArrayList<>());
+        this.userIndex = new ConcurrentHashMap<>();
+        this.createdPlaylists = new IntAdjacency();
+        this.userPlaylists = new IntAdjacency();
+        this.recentLikes = new ConcurrentHashMap<>();
+    }
+
+    User add(String name, String mobile) {
+        User user=new User();
+        user.setMobile(mobile);
+        user.setName(name);
+        synchronized (users){
+            user.setId(users.size() * count + index);
+            users.add(user);
+        }
+        //the first user registered with a mobile keeps owning it
+        userIndex.putIfAbsent(mobile,user);
+        return user;
+    }
+
+    int recordRecentLike(User user, int songId, int history, int[] recent) {
+        //Copies the user's last history liked song ids into recent, newest first, and returns how many there
+        //are, then adds songId to them. A ring of history slots after a total count, so a user's history never
+        //grows past it; after the user's first like this allocates nothing.
+        int[] ring=ring(user,history);
+        synchronized (ring){
+            int count=recent(ring,history,recent);
+            ring[1+ring[0] % history]=songId;
+            ring[0]++;
+            return count;
+        }
+    }
+
+    private int[] ring(User user, int history) {
+        int[] ring=recentLikes.get(user);
+        return ring!=null ? ring : recentLikes.computeIfAbsent(user,u->new int[history+1]);
+    }
+
+    void restoreRecentLikes(User user, int[] recent, int history) {
+        //puts back recent likes saved newest first, as recentLikes returned them
+        int[] ring=ring(user,history);
+        synchronized (ring){
+            for(int i=Math.min(recent.length,history)-1;i>=0;i--){
+                ring[1+ring[0] % history]=recent[i];
+                ring[0]++;
+            }
+        }
+    }
+
+    int[] recentLikes(User user, int history) {
+        int[] ring=recentLikes.get(user);
+        if(ring==null){
+            return new int[0];
+        }
+        synchronized (ring){
+            int[] recent=new int[Math.min(ring[0],history)];
+            recent(ring,history,recent);
+            return recent;
+        }
+    }
+
+    private static int recent(int[] ring, int history, int[] recent) {
+        int total=ring[0];
+        int count=Math.min(total,history);
+        for(int i=0;i<count;i++){
+            recent[i]=ring[1+(total-1-i) % history];
+        }
+        return count;
+    }
+
+    User get(int id) {
+        return users.get(position(id));
+    }
+
+    int position(int id) {
+        return id / count;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,58 @@
+package com.driver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@ConditionalOnProperty(name = "spotify.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig implements WebMvcConfigurer {
+    //With spotify.threads.virtual=true every request, and every async response body, runs on its own virtual
+    //thread instead of Tomcat's 200-thread pool, so calls waiting on a journal fsync or a full like queue
+    //don't hold a platform thread. Needs a Java 21 runtime (build with -Pjava21); the executor is looked up
+    //reflectively so the default Java 11 build still compiles. The embedded server stops before the context
+    //destroys its beans, so by shutdown the executor only has async bodies left to finish.
+
+    //how long shutdown waits for running tasks before interrupting them
+    private static final long SHUTDOWN_SECONDS = 30;
+
+    private final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler() {
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new TaskExecutorAdapter(executor));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if(!executor.awaitTermination(SHUTDOWN_SECONDS,TimeUnit.SECONDS)){
+            executor.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try{
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }catch(NoSuchMethodException e){
+            throw new IllegalStateException("spotify.threads.virtual needs Java 21, running on "+System.getProperty("java.version"),e);
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException("Could not create the virtual thread executor",e);
+        }
+    }
+}
@@ -1,14 +1,32 @@
 package com.driver.test;
 
 import com.driver.*;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 import org.mockito.InjectMocks;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -16,4 +34,510 @@ import static org.junit.jupiter.api.Assertions.*;
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 public class TestCases {
 
+    @Test
+    @Order(1)
+    public void concurrentLikesAreCountedExactly() throws Exception {
+        try (SpotifyService service = new SpotifyService()) {
+            service.createAlbum("Album", "Artist");
+            service.createSong("Song A", "Album", 3);
+            service.createSong("Song B", "Album", 4);
+
+            int threads = 8;
+            int usersPerThread = 500;
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < usersPerThread; i++) {
+                        String mobile = thread + "-" + i;
+                        service.createUser("user", mobile);
+                        //every user likes Song A twice and Song B once, only one like per song may count
+                        service.likeSong(mobile, "Song A");
+                        service.likeSong(mobile, "Song A");
+                        service.likeSong(mobile, "Song B");
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            pool.shutdown();
+
+            int users = threads * usersPerThread;
+            assertEquals(users, service.likeSong("0-0", "Song A").getLikes());
+            assertEquals(users, service.likeSong("0-0", "Song B").getLikes());
+            assertEquals("Artist", service.mostPopularArtist());
+            assertEquals("Song A", service.mostPopularSong());
+            assertEquals(2, service.mostPopularSongs(5).size());
+        }
+    }
+
+    @Test
+    @Order(2)
+    public void recommendationsSurviveSnapshotLoad() throws Exception {
+        //with a history of 2 the recent likes depend on the order each user liked in, which the snapshot doesn't keep
+        System.setProperty("spotify.recommend.history", "2");
+        try {
+            Path dir = Files.createTempDirectory("spotify-recommend");
+            SpotifyRepository repository = SpotifyRepository.open(dir, SpotifyJournal.FsyncPolicy.NEVER, 10, 0);
+            repository.createAlbum("Album", "Artist");
+            for (int i = 0; i < 5; i++) {
+                repository.createSong("S" + i, "Album", 3);
+            }
+            for (int i = 0; i < 3; i++) {
+                //S0 goes with S3 and S2 with S4
+                repository.createUser("user", "a" + i);
+                repository.likeSong("a" + i, "S0");
+                repository.likeSong("a" + i, "S3");
+                repository.createUser("user", "b" + i);
+                repository.likeSong("b" + i, "S2");
+                repository.likeSong("b" + i, "S4");
+            }
+            //the last two likes are S1 and S0, a replay in song order would leave S1 and S2
+            repository.createUser("me", "me");
+            repository.likeSong("me", "S2");
+            repository.likeSong("me", "S1");
+            repository.likeSong("me", "S0");
+            repository.refreshRecommendations();
+            List<String> before = repository.recommend("me", 1);
+            assertEquals(List.of("S3"), before);
+
+            repository.snapshot();
+            repository.close();
+            SpotifyRepository reopened = SpotifyRepository.open(dir, SpotifyJournal.FsyncPolicy.NEVER, 10, 0);
+            reopened.refreshRecommendations();
+            assertEquals(before, reopened.recommend("me", 1));
+            assertEquals(repository.similarSongs("S0", 5), reopened.similarSongs("S0", 5));
+            reopened.close();
+        } finally {
+            System.clearProperty("spotify.recommend.history");
+        }
+    }
+
+    @Test
+    @Order(3)
+    public void journalRecoversSnapshotAndTornTail() throws Exception {
+        Path dir = Files.createTempDirectory("spotify-journal");
+        SpotifyRepository repository = SpotifyRepository.open(dir, SpotifyJournal.FsyncPolicy.ALWAYS, 10, 0);
+        repository.createUser("user", "1");
+        repository.createAlbum("Album", "Artist");
+        repository.createSong("Song A", "Album", 3);
+        repository.snapshot();
+        //only in the journal segment written after the snapshot
+        repository.createSong("Song B", "Album", 4);
+        repository.likeSong("1", "Song B");
+        repository.close();
+
+        //a record cut short by a crash: its length promises more bytes than were written
+        List<Integer> segments = SpotifyJournal.segments(dir);
+        Path last = dir.resolve(String.format("journal-%06d.log", segments.get(segments.size() - 1)));
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(last, StandardOpenOption.APPEND))) {
+            out.writeInt(100);
+            out.writeInt(0);
+            out.write(new byte[10]);
+        }
+
+        SpotifyRepository recovered = SpotifyRepository.open(dir, SpotifyJournal.FsyncPolicy.ALWAYS, 10, 0);
+        assertEquals(1, recovered.userCount());
+        assertEquals(2, recovered.songs.size());
+        assertEquals("Song B", recovered.mostPopularSong());
+        assertEquals(1, recovered.likeSong("1", "Song B").getLikes());
+        recovered.createUser("user", "2");
+        recovered.close();
+
+        //writes after the torn record went to a new segment and are recovered too
+        SpotifyRepository again = SpotifyRepository.open(dir, SpotifyJournal.FsyncPolicy.ALWAYS, 10, 0);
+        assertEquals(2, again.userCount());
+        assertEquals(2, again.likeSong("2", "Song B").getLikes());
+        again.close();
+    }
+
+    @Test
+    @Order(4)
+    public void dumpRoundTripsTheRepository() throws Exception {
+        try (SpotifyRepository repository = new SpotifyRepository();
+             SpotifyRepository copy = new SpotifyRepository()) {
+            repository.createAlbum("Album", "Artist");
+            repository.createAlbum("Other", "Band");
+            for (int i = 0; i < 20; i++) {
+                repository.createSong("Song " + i, i % 2 == 0 ? "Album" : "Other", i % 5);
+            }
+            for (int i = 0; i < 10; i++) {
+                repository.createUser("user " + i, "m" + i);
+                for (int s = 0; s <= i; s++) {
+                    repository.likeSong("m" + i, "Song " + s);
+                }
+            }
+            repository.createPlaylistOnLength("m0", "Threes", 3);
+            repository.findPlaylist("m5", "Threes");
+            ByteArrayOutputStream dump = new ByteArrayOutputStream();
+            repository.export(dump);
+
+            copy.load(new ByteArrayInputStream(dump.toByteArray()));
+            assertEquals(repository.userCount(), copy.userCount());
+            assertEquals(repository.songs.size(), copy.songs.size());
+            assertEquals(repository.mostPopularSongs(20), copy.mostPopularSongs(20));
+            assertEquals(repository.mostPopularArtists(2), copy.mostPopularArtists(2));
+            assertEquals(2, copy.listenerCount("Threes"));
+            assertEquals(repository.search("song 1", null, 20).size(), copy.search("song 1", null, 20).size());
+            //likes came back as likes: a repeat is still a no-op
+            assertEquals(10, copy.likeSong("m9", "Song 0").getLikes());
+
+            assertThrows(IOException.class, () -> copy.load(new ByteArrayInputStream(dump.toByteArray())));
+        }
+    }
+
+    @Test
+    @Order(5)
+    public void ingestReportsRowErrorsAndKeepsGoing() throws Exception {
+        try (SpotifyService service = new SpotifyService()) {
+            String users = "{\"name\":\"a\",\"mobile\":\"1\"}\n"
+                    + "null\n"
+                    + "{\"name\":\"b\",\n"
+                    + "{\"name\":\"c\"}\n"
+                    + "\n"
+                    + "{\"name\":\"d\",\"mobile\":\"2\"}\n";
+            BatchResult result = service.createUsers(new ByteArrayInputStream(users.getBytes(StandardCharsets.UTF_8)), "application/x-ndjson");
+            assertEquals(5, result.getRows());
+            assertEquals(2, result.getSucceeded());
+            assertEquals(3, result.getFailed());
+            assertEquals(List.of(2, 3, 4), result.getErrors().stream().map(BatchResult.RowError::getLine).collect(Collectors.toList()));
+            assertEquals("Missing field mobile", result.getErrors().get(2).getError());
+
+            service.createAlbum("Album", "Artist");
+            String songs = "title,albumName,length\n"
+                    + "Song A,Album,3\n"
+                    + "Song B,Missing,4\n"
+                    + "Song C,Album,x\n"
+                    + "Song D,Album,\n";
+            result = service.createSongs(new ByteArrayInputStream(songs.getBytes(StandardCharsets.UTF_8)), "text/csv");
+            assertEquals(1, result.getSucceeded());
+            //rows that fail to parse or validate are reported as read, the repository's errors when their batch is applied
+            assertEquals(List.of("Malformed row", "Missing field length", "Album does not exist"),
+                    result.getErrors().stream().map(BatchResult.RowError::getError).collect(Collectors.toList()));
+            assertEquals("Song A", service.likeSong("1", "Song A").getTitle());
+        }
+    }
+
+    @Test
+    @Order(6)
+    public void searchFindsPrefixesThenTypos() throws Exception {
+        try (SpotifyService service = new SpotifyService()) {
+            service.createAlbum("Abbey Road", "The Beatles");
+            service.createSong("Yesterday", "Abbey Road", 3);
+            service.createSong("Yellow Submarine", "Abbey Road", 3);
+            service.createSong("Here Comes The Sun", "Abbey Road", 3);
+
+            List<SearchHit> hits = service.search("  YE ", "song", 10);
+            assertEquals(List.of("Yellow Submarine", "Yesterday"), hits.stream().map(SearchHit::getTitle).collect(Collectors.toList()));
+            assertEquals("prefix", hits.get(0).getMatch());
+
+            //one typo is allowed in a query of 4 to 6 letters, two from 7 letters on
+            hits = service.search("yestrday", null, 10);
+            assertEquals(1, hits.size());
+            assertEquals("Yesterday", hits.get(0).getTitle());
+            assertEquals("fuzzy", hits.get(0).getMatch());
+
+            hits = service.search("beatles", null, 10);
+            assertTrue(hits.isEmpty());
+            hits = service.search("the beatls", "artist", 10);
+            assertEquals("The Beatles", hits.get(0).getTitle());
+            assertEquals("artist", hits.get(0).getType());
+
+            //a prefix match is not repeated as a fuzzy one, and the limit holds over both
+            assertEquals(1, service.search("abbey road", null, 10).size());
+            assertEquals(1, service.search("y", "song", 1).size());
+            assertEquals("Unknown search type", assertThrows(Exception.class, () -> service.search("y", "video", 1)).getMessage());
+        }
+    }
+
+    @Test
+    @Order(7)
+    public void usersAreRoutedToShardsByMobile() throws Exception {
+        try (SpotifyRepository repository = new SpotifyRepository(4)) {
+            List<User> users = new ArrayList<>();
+            Set<Integer> shards = new HashSet<>();
+            for (int i = 0; i < 100; i++) {
+                User user = repository.createUser("user", "m" + i);
+                users.add(user);
+                assertEquals(Math.floorMod(user.getMobile().hashCode(), 4), user.getId() % 4);
+                shards.add(user.getId() % 4);
+            }
+            assertEquals(4, shards.size());
+            assertEquals(100, repository.userCount());
+            for (User user : users) {
+                assertSame(user, repository.user(user.getId()));
+            }
+
+            //a playlist joined from every shard
+            repository.createAlbum("Album", "Artist");
+            repository.createSong("Song", "Album", 3);
+            repository.createPlaylistOnLength("m0", "Playlist", 3);
+            for (int i = 1; i < 10; i++) {
+                repository.findPlaylist("m" + i, "Playlist");
+            }
+            assertEquals(10, repository.listenerCount("Playlist"));
+            assertEquals(1, repository.createdPlaylists("m0").size());
+            assertEquals(0, repository.createdPlaylists("m1").size());
+            assertEquals(1, repository.userPlaylists("m7").size());
+            assertEquals("User does not exist", assertThrows(Exception.class, () -> repository.likeSong("m100", "Song")).getMessage());
+        }
+    }
+
+    @Test
+    @Order(8)
+    public void trendingScoresDecayWithTheWindow() {
+        Song old = new Song("Old", 3);
+        old.setId(0);
+        Song fresh = new Song("Fresh", 3);
+        fresh.setId(1);
+        long hour = 60 * 60 * 1000L;
+        long start = 1_000_000L;
+        TrendingBoard<Song> board = new TrendingBoard<>("1h", 10, 100, Song::getId, Song::getTitle, start);
+
+        board.record(old, 10, start);
+        board.refresh(start);
+        assertEquals(List.of("Old"), board.top(10));
+
+        //three hours on, 10 old likes weigh about 0.5 and 2 new ones 2
+        board.record(fresh, 2, start + 3 * hour);
+        board.refresh(start + 3 * hour);
+        assertEquals(List.of("Fresh", "Old"), board.top(10));
+        assertEquals(List.of("Fresh"), board.top(1));
+
+        //decayed below the minimum score, both leave the list without another like
+        board.refresh(start + 10 * hour);
+        assertTrue(board.top(10).isEmpty());
+
+        //past 20 windows the scores are rebased and the decayed entries dropped
+        board.record(fresh, 1, start + 25 * hour);
+        board.refresh(start + 25 * hour);
+        assertEquals(List.of("Fresh"), board.top(10));
+        assertEquals(1, board.size());
+    }
+
+    @Test
+    @Order(9)
+    public void queryPlannerPicksTheCheapestIndex() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try (SpotifyRepository repository = new SpotifyRepository()) {
+            int songs = 30000;
+            for (int a = 0; a < songs / 10; a++) {
+                repository.createAlbum("album " + a, "artist " + a / 5);
+            }
+            for (int i = 0; i < songs; i++) {
+                repository.createSong("song " + i, "album " + i / 10, 1 + i % 600);
+            }
+
+            SongQuery byAlbum = new SongQuery();
+            byAlbum.setAlbum("album 7");
+            byAlbum.setMinLength(75);
+            assertEquals(List.of("song 74", "song 75", "song 76", "song 77", "song 78", "song 79"), titles(repository.songQueries.run(byAlbum)));
+            assertEquals(1, plans(registry, "album"));
+
+            //111 titles start with "song 123", half the catalog is at most 300 long
+            SongQuery byPrefix = new SongQuery();
+            byPrefix.setTitlePrefix("Song 123");
+            byPrefix.setMaxLength(300);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < songs; i++) {
+                if (("song " + i).startsWith("song 123") && 1 + i % 600 <= 300) {
+                    expected.add("song " + i);
+                }
+            }
+            assertEquals(expected, titles(repository.songQueries.run(byPrefix)));
+            assertEquals(1, plans(registry, "title_prefix"));
+
+            //no indexed predicate: the catalog is scanned in parallel and matches come back in id order
+            SongQuery scan = new SongQuery();
+            scan.setLimit(3);
+            assertEquals(List.of("song 0", "song 1", "song 2"), titles(repository.songQueries.run(scan)));
+            assertEquals(1, plans(registry, "scan"));
+
+            repository.createUser("user", "1");
+            repository.likeSong("1", "song 29999");
+            repository.likeSong("1", "song 5");
+            SongQuery topLiked = new SongQuery();
+            topLiked.setOrderBy("likes");
+            topLiked.setLimit(2);
+            assertEquals(List.of("song 5", "song 29999"), titles(repository.songQueries.run(topLiked)));
+            assertEquals(1, plans(registry, "leaderboard"));
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    private static List<String> titles(List<Song> songs) {
+        return songs.stream().map(Song::getTitle).collect(Collectors.toList());
+    }
+
+    private static double plans(SimpleMeterRegistry registry, String plan) {
+        return registry.get("spotify.query.plans").tag("plan", plan).counter().count();
+    }
+
+    @Test
+    @Order(10)
+    public void cachedAnswersAreDroppedWhenTheirRegionChanges() throws Exception {
+        ResponseCache cache = new ResponseCache(100, 60_000);
+        int[] loads = new int[1];
+        SpotifyMetrics.Call<String, RuntimeException> loader = () -> "load " + (++loads[0]);
+        assertEquals("load 1", cache.get(ResponseCache.SONGS, ResponseCache.key("top"), loader));
+        assertEquals("load 1", cache.get(ResponseCache.SONGS, ResponseCache.key("top"), loader));
+        cache.changed(ResponseCache.ARTISTS);
+        assertEquals("load 1", cache.get(ResponseCache.SONGS, ResponseCache.key("top"), loader));
+        cache.changed(ResponseCache.SONGS | ResponseCache.TRENDING);
+        assertEquals("load 2", cache.get(ResponseCache.SONGS, ResponseCache.key("top"), loader));
+        assertEquals("load 3", cache.get(ResponseCache.SONGS | ResponseCache.ARTISTS, ResponseCache.key("both"), loader));
+        cache.changed(ResponseCache.ARTISTS);
+        assertEquals("load 4", cache.get(ResponseCache.SONGS | ResponseCache.ARTISTS, ResponseCache.key("both"), loader));
+
+        //through the service: each write bumps the regions its reads depend on
+        try (SpotifyService service = new SpotifyService()) {
+            service.createUser("user", "1");
+            service.createUser("user", "2");
+            service.createAlbum("Album", "Artist");
+            service.createSong("Song A", "Album", 3);
+            assertEquals(1, service.search("song", "song", 10).size());
+            service.createSong("Song B", "Album", 3);
+            assertEquals(2, service.search("song", "song", 10).size());
+            service.likeSong("1", "Song A");
+            assertEquals("Song A", service.mostPopularSong());
+            service.likeSong("1", "Song B");
+            service.likeSong("2", "Song B");
+            assertEquals("Song B", service.mostPopularSong());
+            service.createPlaylistOnLength("1", "Threes", 3);
+            assertEquals(1, service.playlistListenerCount("Threes"));
+            service.findPlaylist("2", "Threes");
+            assertEquals(2, service.playlistListenerCount("Threes"));
+        }
+    }
+
+    @Test
+    @Order(11)
+    public void likePipelineAppliesEveryQueuedLikeOnClose() throws Exception {
+        try (SpotifyRepository repository = new SpotifyRepository()) {
+            LikePipeline pipeline = new LikePipeline(repository, 16, 2, 8, LikePipeline.Backpressure.BLOCK);
+            repository.setLikePipeline(pipeline);
+            repository.createAlbum("Album", "Artist");
+            repository.createSong("Song", "Album", 3);
+            int threads = 4;
+            int usersPerThread = 500;
+            for (int t = 0; t < threads; t++) {
+                for (int i = 0; i < usersPerThread; i++) {
+                    repository.createUser("user", t + "-" + i);
+                }
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            CountDownLatch halfway = new CountDownLatch(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < usersPerThread; i++) {
+                        if (i == usersPerThread / 2) {
+                            halfway.countDown();
+                        }
+                        repository.likeSong(thread + "-" + i, "Song");
+                    }
+                    return null;
+                }));
+            }
+            //closing while likes are queued and reserved: the queued ones are applied, later ones go synchronous
+            halfway.await();
+            pipeline.close();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            pool.shutdown();
+            repository.awaitLikes();
+
+            int users = threads * usersPerThread;
+            assertEquals(users, repository.likeSong("0-0", "Song").getLikes());
+            repository.createUser("late", "late");
+            assertEquals(users + 1, repository.likeSong("late", "Song").getLikes());
+        }
+    }
+
+    @Test
+    @Order(12)
+    public void recommendationsFollowALike() throws Exception {
+        try (SpotifyRepository repository = new SpotifyRepository()) {
+            repository.createAlbum("Album", "Artist");
+            for (int i = 0; i < 3; i++) {
+                repository.createSong("S" + i, "Album", 3);
+            }
+            for (String mobile : List.of("u0", "u1", "u2", "me", "new")) {
+                repository.createUser(mobile, mobile);
+            }
+            repository.likeSong("u0", "S0");
+            repository.likeSong("u0", "S1");
+            repository.likeSong("u1", "S0");
+            repository.likeSong("u1", "S1");
+            repository.likeSong("u2", "S2");
+            repository.likeSong("me", "S0");
+            repository.refreshRecommendations();
+
+            //no history yet: the most popular song, gone from the cached list right after the first like
+            assertEquals(List.of("S0"), repository.recommend("new", 1));
+            repository.likeSong("new", "S0");
+            assertEquals(List.of(), repository.recommend("new", 1));
+            repository.refreshRecommendations();
+            assertEquals(List.of("S1"), repository.recommend("new", 1));
+
+            //S1 is liked together with S0; once liked it is never recommended, even before a refresh
+            assertEquals(List.of("S1"), repository.recommend("me", 1));
+            repository.likeSong("me", "S1");
+            assertEquals(List.of(), repository.recommend("me", 1));
+            repository.refreshRecommendations();
+            assertEquals(List.of("S2"), repository.recommend("me", 1));
+        }
+    }
+
+    @Test
+    @Order(13)
+    public void operationErrorsAreTaggedWithAFixedCode() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try (SpotifyService service = new SpotifyService()) {
+            service.createUser("user", "1");
+            service.createAlbum("Album", "Artist");
+            service.createSong("Song", "Album", 3);
+            assertThrows(Exception.class, () -> service.likeSong("2", "Song"));
+            assertThrows(Exception.class, () -> service.likeSong("2", "Song"));
+            assertThrows(Exception.class, () -> service.likeSong("1", "Other"));
+            assertThrows(Exception.class, () -> service.search("", null, 10));
+            assertThrows(Exception.class, () -> service.search("song", "playlist", 10));
+
+            assertEquals(2, errors(registry, "like_song", "user_not_found"));
+            assertEquals(1, errors(registry, "like_song", "song_not_found"));
+            assertEquals(2, errors(registry, "search", "invalid_request"));
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    private static double errors(SimpleMeterRegistry registry, String operation, String error) {
+        return registry.get("spotify.operation.errors").tag("operation", operation).tag("error", error).counter().count();
+    }
+
+    @Test
+    @Order(14)
+    public void popularListsAreCutToTheMaximumK() throws Exception {
+        try (SpotifyService service = new SpotifyService()) {
+            service.createAlbum("Album", "Artist");
+            //k is cut to 1000 with the default view size
+            for (int i = 0; i < 1005; i++) {
+                service.createSong("Song " + i, "Album", 3);
+            }
+            assertEquals(1000, service.mostPopularSongs(Integer.MAX_VALUE).size());
+            assertEquals(List.of("Artist"), service.mostPopularArtists(Integer.MAX_VALUE));
+        }
+    }
 }